@@ -0,0 +1,73 @@
+package io.dropwizard.elasticsearch.bulk;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of a {@link BulkLoadSession}.
+ */
+public class BulkLoadReport {
+
+    private final List<String> indices;
+    private final long documents;
+    private final long loadTimeMillis;
+    private final long totalTimeMillis;
+    private final String healthStatus;
+
+    /**
+     * Create a new bulk load report.
+     *
+     * @param indices         the indices of the bulk load session
+     * @param documents       the number of documents added to the indices during the session
+     * @param loadTimeMillis  the time between opening and finishing the session, in milliseconds
+     * @param totalTimeMillis the time between opening the session and the indices reaching the final health status,
+     *                        in milliseconds
+     * @param healthStatus    the health status of the indices after restoring their settings
+     */
+    public BulkLoadReport(List<String> indices, long documents, long loadTimeMillis, long totalTimeMillis,
+                          String healthStatus) {
+        this.indices = indices;
+        this.documents = documents;
+        this.loadTimeMillis = loadTimeMillis;
+        this.totalTimeMillis = totalTimeMillis;
+        this.healthStatus = healthStatus;
+    }
+
+    public List<String> getIndices() {
+        return indices;
+    }
+
+    public long getDocuments() {
+        return documents;
+    }
+
+    public long getLoadTimeMillis() {
+        return loadTimeMillis;
+    }
+
+    public long getTotalTimeMillis() {
+        return totalTimeMillis;
+    }
+
+    public String getHealthStatus() {
+        return healthStatus;
+    }
+
+    /**
+     * Get the ingest throughput of the session.
+     *
+     * @return the number of documents added per second while the session was open
+     */
+    public double getDocumentsPerSecond() {
+        if (loadTimeMillis <= 0L) {
+            return 0.0d;
+        }
+        return documents / (loadTimeMillis / (double) TimeUnit.SECONDS.toMillis(1L));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d documents in %d ms (%.1f docs/s), %d ms until %s",
+                indices, documents, loadTimeMillis, getDocumentsPerSecond(), totalTimeMillis, healthStatus);
+    }
+}
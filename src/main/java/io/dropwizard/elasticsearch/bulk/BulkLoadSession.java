@@ -0,0 +1,337 @@
+package io.dropwizard.elasticsearch.bulk;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.dropwizard.elasticsearch.config.BulkLoadConfiguration;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NStringEntity;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A bulk load session which tunes the settings of one or more indices for ingest speed while it is open.
+ * <p>
+ * Opening the session disables refreshes, removes all replicas and switches the translog to asynchronous durability.
+ * Finishing (or closing) the session refreshes the indices, optionally force-merges them, restores the original
+ * settings and waits for the indices to become {@code GREEN}. Aborting the session only restores the original settings.
+ *
+ * @see <a href="https://www.elastic.co/guide/en/elasticsearch/reference/6.0/tune-for-indexing-speed.html">Tune for indexing speed</a>
+ */
+public class BulkLoadSession implements Closeable {
+
+    static final String REFRESH_INTERVAL = "index.refresh_interval";
+    static final String NUMBER_OF_REPLICAS = "index.number_of_replicas";
+    static final String TRANSLOG_DURABILITY = "index.translog.durability";
+    static final Map<String, String> BULK_LOAD_SETTINGS = ImmutableMap.of(
+            REFRESH_INTERVAL, "-1",
+            NUMBER_OF_REPLICAS, "0",
+            TRANSLOG_DURABILITY, "async");
+    private static final long HEALTH_POLL_MILLIS = TimeUnit.SECONDS.toMillis(10L);
+    private static final long TASK_POLL_MILLIS = TimeUnit.SECONDS.toMillis(1L);
+    private static final String FORCE_MERGE_ACTION = "indices:admin/forcemerge";
+
+    private final Logger logger = LoggerFactory.getLogger(BulkLoadSession.class);
+    private final RestClient client;
+    private final BulkLoadConfiguration config;
+    private final List<String> indices;
+    private final String indexList;
+
+    private final Map<String, Map<String, String>> originalSettings = new HashMap<>();
+    private long startDocuments = 0L;
+    private long startTime = 0L;
+    private boolean open = false;
+    private volatile boolean aborted = false;
+
+    /**
+     * Create a new bulk load session. The settings of the indices aren't changed until {@link #open()} is called.
+     *
+     * @param client  an Elasticsearch {@link RestHighLevelClient} instance connected to the cluster
+     * @param config  a valid {@link BulkLoadConfiguration} instance
+     * @param indices the indices which should be tuned for ingest speed
+     * @throws IllegalArgumentException if {@code indices} was empty
+     */
+    public BulkLoadSession(RestHighLevelClient client, BulkLoadConfiguration config, List<String> indices) {
+        checkArgument(!indices.isEmpty(), "At least one index must be given");
+
+        this.client = checkNotNull(client, "Elasticsearch client must not be null").getLowLevelClient();
+        this.config = checkNotNull(config, "BulkLoadConfiguration must not be null");
+        this.indices = ImmutableList.copyOf(indices);
+        this.indexList = String.join(",", this.indices);
+    }
+
+    /**
+     * Remember the current settings of the indices and apply the bulk load settings.
+     * <p>
+     * Indices which already have the bulk load settings are rejected, as they are most likely covered by another
+     * session or were left behind by one, and their original settings are unknown.
+     *
+     * @return this session
+     * @throws IOException           if the settings could not be retrieved or updated
+     * @throws IllegalStateException if the session is already open or an index already has the bulk load settings
+     */
+    public synchronized BulkLoadSession open() throws IOException {
+        checkState(!open, "Bulk load session for %s is already open", indexList);
+
+        final Map<String, Object> settings = performRequest("GET",
+                "/" + indexList + "/_settings/" + String.join(",", BULK_LOAD_SETTINGS.keySet()),
+                Collections.singletonMap("flat_settings", "true"));
+
+        originalSettings.clear();
+        for (Map.Entry<String, Object> index : settings.entrySet()) {
+            final Object indexSettings = index.getValue() instanceof Map
+                    ? ((Map<?, ?>) index.getValue()).get("settings")
+                    : null;
+            final Map<String, String> original = new HashMap<>();
+            for (String setting : BULK_LOAD_SETTINGS.keySet()) {
+                final Object value = indexSettings instanceof Map ? ((Map<?, ?>) indexSettings).get(setting) : null;
+                original.put(setting, value == null ? null : value.toString());
+            }
+            originalSettings.put(index.getKey(), original);
+        }
+        for (Map.Entry<String, Map<String, String>> original : originalSettings.entrySet()) {
+            checkState(!BULK_LOAD_SETTINGS.equals(original.getValue()),
+                    "Index %s already has the bulk load settings, its original settings are unknown", original.getKey());
+        }
+
+        startDocuments = countDocuments();
+        startTime = System.currentTimeMillis();
+
+        logger.info("Opening bulk load session for " + indexList + ", original settings: " + originalSettings);
+        updateSettings(indexList, BULK_LOAD_SETTINGS);
+        aborted = false;
+        open = true;
+        return this;
+    }
+
+    /**
+     * Refresh the indices, optionally force-merge them, restore their original settings and wait for them to
+     * become {@code GREEN}.
+     * <p>
+     * The force-merge runs before the replicas are restored, so that only the primaries have to be merged. The
+     * original settings are restored even if refreshing or merging fails. If the session is aborted in the meantime,
+     * waiting for the merge and for {@code GREEN} stops early. If the settings could not be restored, the session
+     * stays open, so that calling this method, {@link #close()} or {@link #abort()} again retries.
+     *
+     * @return a {@link BulkLoadReport} with the elapsed time and throughput of the session
+     * @throws IOException           if the settings could not be restored or the indices could not be refreshed
+     * @throws IllegalStateException if the session isn't open
+     */
+    public synchronized BulkLoadReport finish() throws IOException {
+        checkState(open, "Bulk load session for %s is not open", indexList);
+
+        final long loadTime = System.currentTimeMillis() - startTime;
+        try {
+            client.performRequest("POST", "/" + indexList + "/_refresh");
+            if (config.getForceMergeMaxSegments() != null) {
+                forceMerge(config.getForceMergeMaxSegments(),
+                        System.currentTimeMillis() + config.getGreenTimeout().toMilliseconds());
+            }
+        } finally {
+            restoreSettings();
+        }
+
+        final long documents = countDocuments() - startDocuments;
+        final String status = waitForGreen(System.currentTimeMillis() + config.getGreenTimeout().toMilliseconds());
+
+        final BulkLoadReport report = new BulkLoadReport(indices, documents, loadTime,
+                System.currentTimeMillis() - startTime, status);
+        if ("green".equalsIgnoreCase(status)) {
+            logger.info("Finished bulk load session: " + report);
+        } else {
+            logger.warn("Finished bulk load session, but indices did not become green: " + report);
+        }
+        return report;
+    }
+
+    /**
+     * Finish the session if it is still open.
+     *
+     * @throws IOException if the settings could not be restored
+     * @see #finish()
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (open) {
+            finish();
+        }
+    }
+
+    /**
+     * Restore the original settings of the indices without refreshing, merging or waiting for them to become
+     * {@code GREEN}, e.g. on shutdown. A concurrent {@link #finish()} stops waiting and restores the settings itself.
+     *
+     * @throws IOException if the settings could not be restored; the session stays open
+     */
+    public void abort() throws IOException {
+        aborted = true;
+        synchronized (this) {
+            if (open) {
+                logger.warn("Aborting bulk load session for " + indexList);
+                restoreSettings();
+            }
+        }
+    }
+
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    public List<String> getIndices() {
+        return indices;
+    }
+
+    /**
+     * Force-merges the indices. Elasticsearch 6.0 can't run a force-merge as a background task and a merge usually
+     * takes longer than the socket timeout of the {@link RestClient}, so the request is sent asynchronously and, if it
+     * times out, the {@code _tasks} API is polled until no force-merge is running anymore. As tasks don't tell which
+     * indices they merge, this also waits for force-merges of other indices.
+     */
+    private void forceMerge(int maxNumSegments, long deadline) throws IOException {
+        logger.info("Force-merging " + indexList + " to " + maxNumSegments + " segments");
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        client.performRequestAsync("POST", "/" + indexList + "/_forcemerge",
+                Collections.singletonMap("max_num_segments", String.valueOf(maxNumSegments)),
+                new ResponseListener() {
+                    @Override
+                    public void onSuccess(Response response) {
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onFailure(Exception exception) {
+                        failure.set(exception);
+                        done.countDown();
+                    }
+                });
+
+        try {
+            boolean requestPending = true;
+            while (!aborted && System.currentTimeMillis() < deadline) {
+                if (requestPending) {
+                    if (done.await(TASK_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                        requestPending = false;
+                        final Exception exception = failure.get();
+                        if (exception == null) {
+                            return;
+                        } else if (!(exception instanceof SocketTimeoutException)) {
+                            logger.warn("Force-merge of " + indexList + " failed: " + exception.getMessage());
+                            return;
+                        }
+                        logger.info("Force-merge request for " + indexList + " timed out, waiting for the merge task");
+                    }
+                } else if (forceMergeRunning()) {
+                    Thread.sleep(TASK_POLL_MILLIS);
+                } else {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.warn("Force-merge of " + indexList + " did not complete within " + config.getGreenTimeout()
+                + (aborted ? " or the session was aborted" : ""));
+    }
+
+    private boolean forceMergeRunning() throws IOException {
+        final Map<String, Object> tasks = performRequest("GET", "/_tasks",
+                Collections.singletonMap("actions", FORCE_MERGE_ACTION));
+        final Object nodes = tasks.get("nodes");
+        if (nodes instanceof Map) {
+            for (Object node : ((Map<?, ?>) nodes).values()) {
+                final Object nodeTasks = node instanceof Map ? ((Map<?, ?>) node).get("tasks") : null;
+                if (nodeTasks instanceof Map && !((Map<?, ?>) nodeTasks).isEmpty()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Waits for the indices to become {@code GREEN} in short steps, so that no single request exceeds the timeouts of
+     * the {@link RestClient}.
+     */
+    private String waitForGreen(long deadline) throws IOException {
+        String status;
+        do {
+            final long timeout = Math.max(0L, Math.min(HEALTH_POLL_MILLIS, deadline - System.currentTimeMillis()));
+            final Map<String, Object> health = performRequest("GET", "/_cluster/health/" + indexList, ImmutableMap.of(
+                    "wait_for_status", "green",
+                    "timeout", timeout + "ms",
+                    "ignore", "408"));
+            status = String.valueOf(health.get("status"));
+        } while (!"green".equalsIgnoreCase(status) && System.currentTimeMillis() < deadline && !aborted);
+
+        return status;
+    }
+
+    /**
+     * Restores the original settings of each index. Settings which weren't set before are reset to their defaults.
+     * The session is only closed once all settings have been restored, so that a failed attempt can be retried.
+     */
+    private synchronized void restoreSettings() throws IOException {
+        for (Map.Entry<String, Map<String, String>> original : originalSettings.entrySet()) {
+            updateSettings(original.getKey(), original.getValue());
+        }
+        open = false;
+        logger.info("Restored settings of " + indexList + " after bulk load");
+    }
+
+    private long countDocuments() throws IOException {
+        final Map<String, Object> stats = performRequest("GET", "/" + indexList + "/_stats/docs", Collections.emptyMap());
+        return XContentMapValues.nodeLongValue(XContentMapValues.extractValue("_all.primaries.docs.count", stats), 0L);
+    }
+
+    private void updateSettings(String index, Map<String, String> settings) throws IOException {
+        final XContentBuilder body = XContentFactory.jsonBuilder().startObject();
+        for (Map.Entry<String, String> setting : settings.entrySet()) {
+            if (setting.getValue() == null) {
+                body.nullField(setting.getKey());
+            } else {
+                body.field(setting.getKey(), setting.getValue());
+            }
+        }
+        body.endObject();
+
+        client.performRequest("PUT", "/" + index + "/_settings", Collections.emptyMap(), jsonEntity(body));
+    }
+
+    private Map<String, Object> performRequest(String method, String endpoint, Map<String, String> params) throws IOException {
+        final Response response = client.performRequest(method, endpoint, params);
+        try (InputStream is = response.getEntity().getContent()) {
+            return XContentHelper.convertToMap(XContentType.JSON.xContent(), is, true);
+        }
+    }
+
+    private static HttpEntity jsonEntity(XContentBuilder builder) throws IOException {
+        return new NStringEntity(builder.string(), ContentType.APPLICATION_JSON);
+    }
+}
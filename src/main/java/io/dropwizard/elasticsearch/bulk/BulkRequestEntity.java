@@ -0,0 +1,135 @@
+package io.dropwizard.elasticsearch.bulk;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A repeatable HTTP entity made up of a list of {@link ByteBuffer} segments.
+ * <p>
+ * As an {@link HttpAsyncContentProducer}, the segments are written to the connection as they are, without being copied
+ * into intermediate buffers first.
+ */
+class BulkRequestEntity extends AbstractHttpEntity implements HttpAsyncContentProducer {
+
+    static final ContentType NDJSON = ContentType.create("application/x-ndjson");
+
+    private final List<ByteBuffer> segments;
+    private final long contentLength;
+    private int current = 0;
+
+    BulkRequestEntity(List<ByteBuffer> segments, long contentLength) {
+        this.segments = segments;
+        this.contentLength = contentLength;
+        setContentType(NDJSON.toString());
+    }
+
+    @Override
+    public void produceContent(ContentEncoder encoder, IOControl ioControl) throws IOException {
+        while (current < segments.size()) {
+            final ByteBuffer segment = segments.get(current);
+            encoder.write(segment);
+            if (segment.hasRemaining()) {
+                return;
+            }
+            current++;
+        }
+        encoder.complete();
+    }
+
+    /**
+     * Rewinds the entity, so that it can be sent again.
+     */
+    @Override
+    public void close() {
+        for (ByteBuffer segment : segments) {
+            segment.rewind();
+        }
+        current = 0;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public InputStream getContent() {
+        return new SegmentInputStream(segments);
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        final byte[] chunk = new byte[8192];
+        try (InputStream is = getContent()) {
+            int read;
+            while ((read = is.read(chunk)) != -1) {
+                outputStream.write(chunk, 0, read);
+            }
+        }
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    /**
+     * An {@link InputStream} reading views of the segments, leaving the segments themselves untouched.
+     */
+    private static class SegmentInputStream extends InputStream {
+
+        private final List<ByteBuffer> segments;
+        private int index = 0;
+        private ByteBuffer segment = null;
+
+        SegmentInputStream(List<ByteBuffer> segments) {
+            this.segments = segments;
+        }
+
+        @Override
+        public int read() {
+            if (!nextSegment()) {
+                return -1;
+            }
+            return segment.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!nextSegment()) {
+                return -1;
+            }
+            final int read = Math.min(length, segment.remaining());
+            segment.get(bytes, offset, read);
+            return read;
+        }
+
+        private boolean nextSegment() {
+            while (segment == null || !segment.hasRemaining()) {
+                if (index >= segments.size()) {
+                    return false;
+                }
+                segment = segments.get(index++).duplicate();
+                segment.rewind();
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,478 @@
+package io.dropwizard.elasticsearch.bulk;
+
+import io.dropwizard.elasticsearch.ratelimit.EndpointFamily;
+import io.dropwizard.elasticsearch.ratelimit.RequestThrottler;
+import io.dropwizard.elasticsearch.ratelimit.ThrottlePermit;
+import io.dropwizard.elasticsearch.util.ByteBufferPool;
+import io.dropwizard.util.Duration;
+import org.apache.http.HttpEntity;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Writes the NDJSON body of a {@code _bulk} request directly into pooled direct {@link ByteBuffer}s and sends it
+ * through the low-level {@link RestClient}.
+ * <p>
+ * Action lines are encoded straight into the buffers and {@link Map} sources are serialized into them without an
+ * intermediate byte array. Large pre-serialized sources ({@code byte[]} or {@link ByteBuffer}) aren't copied at all but
+ * sent as they are, so they must not be modified until the request has been executed. Pre-serialized sources must be
+ * single-line JSON.
+ * <p>
+ * A writer isn't thread-safe. It can be reused after {@link #execute(RestClient)} or {@link #reset()}. The buffers of an
+ * executed request are returned to the {@link ByteBufferPool} once the request has completed.
+ * <p>
+ * If a {@link RequestThrottler} is given, every request waits for a {@link EndpointFamily#BULK} permit of the writer's
+ * caller tag before it is sent, and holds it until the response has arrived.
+ *
+ * @see <a href="https://www.elastic.co/guide/en/elasticsearch/reference/6.0/docs-bulk.html">Bulk API</a>
+ */
+public class BulkRequestWriter implements Closeable {
+
+    /**
+     * Pre-serialized sources smaller than this are copied into the pooled buffers instead of being sent as a
+     * separate segment.
+     */
+    private static final int COPY_THRESHOLD = 1024;
+    /**
+     * The default time to wait for a response, the same as the default maximum retry timeout of {@link RestClient}.
+     */
+    private static final Duration DEFAULT_TIMEOUT = Duration.seconds(30L);
+    private static final byte[] HEX_DIGITS = {
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+    };
+
+    private final ByteBufferPool pool;
+    private final long timeoutMillis;
+    private final RequestThrottler throttler;
+    private final String callerTag;
+    private final List<ByteBuffer> ownedBuffers = new ArrayList<>();
+    private final List<ByteBuffer> segments = new ArrayList<>();
+    private final OutputStream outputStream = new BufferOutputStream();
+
+    private ByteBuffer buffer = null;
+    private int segmentStart = 0;
+    private long length = 0L;
+    private int numberOfActions = 0;
+
+    /**
+     * Create a new bulk request writer.
+     *
+     * @param pool the {@link ByteBufferPool} the request body is written into
+     */
+    public BulkRequestWriter(ByteBufferPool pool) {
+        this(pool, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Create a new bulk request writer.
+     *
+     * @param pool    the {@link ByteBufferPool} the request body is written into
+     * @param timeout how long {@link #execute(RestClient)} waits for the response
+     */
+    public BulkRequestWriter(ByteBufferPool pool, Duration timeout) {
+        this(pool, timeout, null, null);
+    }
+
+    /**
+     * Create a new bulk request writer whose requests are throttled.
+     *
+     * @param pool      the {@link ByteBufferPool} the request body is written into
+     * @param timeout   how long {@link #execute(RestClient)} waits for the response once the request has been sent
+     * @param throttler the {@link RequestThrottler} requests have to pass, or {@literal null} if they aren't throttled
+     * @param callerTag the caller tag of the requests, or {@literal null} for the default tag
+     */
+    public BulkRequestWriter(ByteBufferPool pool, Duration timeout, RequestThrottler throttler, String callerTag) {
+        this.pool = checkNotNull(pool, "ByteBufferPool must not be null");
+        this.timeoutMillis = checkNotNull(timeout, "Timeout must not be null").toMilliseconds();
+        this.throttler = throttler;
+        this.callerTag = callerTag;
+    }
+
+    /**
+     * Add an index action with a pre-serialized JSON source.
+     *
+     * @param index  the name of the index
+     * @param type   the document type
+     * @param id     the document ID, or {@literal null} to let Elasticsearch generate one
+     * @param source the document source as single-line JSON
+     * @return this writer
+     */
+    public BulkRequestWriter index(String index, String type, String id, byte[] source) {
+        return index(index, type, id, ByteBuffer.wrap(source));
+    }
+
+    /**
+     * Add an index action with a pre-serialized JSON source.
+     *
+     * @param index  the name of the index
+     * @param type   the document type
+     * @param id     the document ID, or {@literal null} to let Elasticsearch generate one
+     * @param source the document source as single-line JSON, from its position to its limit
+     * @return this writer
+     */
+    public BulkRequestWriter index(String index, String type, String id, ByteBuffer source) {
+        writeActionLine("index", index, type, id);
+        writeSource(source);
+        return this;
+    }
+
+    /**
+     * Add an index action, serializing the source directly into the request body.
+     *
+     * @param index  the name of the index
+     * @param type   the document type
+     * @param id     the document ID, or {@literal null} to let Elasticsearch generate one
+     * @param source the document source
+     * @return this writer
+     * @throws IOException if the source could not be serialized
+     */
+    public BulkRequestWriter index(String index, String type, String id, Map<String, ?> source) throws IOException {
+        writeActionLine("index", index, type, id);
+        try (XContentBuilder builder = new XContentBuilder(XContentType.JSON.xContent(), outputStream)) {
+            builder.map(source);
+        }
+        write((byte) '\n');
+        return this;
+    }
+
+    /**
+     * Add a delete action.
+     *
+     * @param index the name of the index
+     * @param type  the document type
+     * @param id    the document ID
+     * @return this writer
+     */
+    public BulkRequestWriter delete(String index, String type, String id) {
+        writeActionLine("delete", index, type, checkNotNull(id, "Document ID must not be null"));
+        return this;
+    }
+
+    /**
+     * Send the bulk request and return the buffers to the pool.
+     *
+     * @param client an Elasticsearch {@link RestClient} instance connected to the cluster
+     * @return the parsed {@link BulkResponse}
+     * @throws IOException if the request failed or the response could not be parsed
+     */
+    public BulkResponse execute(RestClient client) throws IOException {
+        return execute(client, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Send the bulk request and detach the buffers from the writer, so that it can be reused right away.
+     * <p>
+     * The request is sent asynchronously and its buffers are returned to the pool once it has completed. If no
+     * response arrives within the timeout, the request may still be in flight and its buffers are left to the garbage
+     * collector instead. A throttled request is sent once its permit has been granted; the time spent waiting for it
+     * is limited by the {@link RequestThrottler} and doesn't count towards the timeout.
+     *
+     * @param client an Elasticsearch {@link RestClient} instance connected to the cluster
+     * @param params the query parameters of the request, e.g. {@code refresh} or {@code timeout}
+     * @return the parsed {@link BulkResponse}
+     * @throws IOException if the request failed, was rejected by the throttler, timed out or the response could not be
+     *                     parsed
+     */
+    public BulkResponse execute(RestClient client, Map<String, String> params) throws IOException {
+        final HttpEntity entity = toEntity();
+        final List<ByteBuffer> requestBuffers = new ArrayList<>(ownedBuffers);
+        ownedBuffers.clear();
+        reset();
+
+        final AtomicBoolean pooled = new AtomicBoolean(true);
+        final CompletableFuture<Response> result = new CompletableFuture<>();
+        final CompletableFuture<ThrottlePermit> permit = throttler == null
+                ? CompletableFuture.completedFuture(null)
+                : throttler.acquireAsync(callerTag, EndpointFamily.BULK);
+        permit.whenComplete((granted, failure) -> {
+            if (failure != null) {
+                release(requestBuffers, pooled);
+            } else if (!pooled.get()) {
+                // the caller has stopped waiting for the permit
+                closePermit(granted);
+            } else {
+                send(client, params, entity, requestBuffers, pooled, granted, result);
+            }
+        });
+
+        final Response response;
+        try {
+            permit.get();
+            response = result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            pooled.set(false);
+            throw new IOException("Bulk request did not complete within " + timeoutMillis + " ms", e);
+        } catch (InterruptedException e) {
+            pooled.set(false);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the bulk request");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+
+        try (InputStream is = response.getEntity().getContent();
+             XContentParser parser = XContentType.JSON.xContent().createParser(NamedXContentRegistry.EMPTY, is)) {
+            return BulkResponse.fromXContent(parser);
+        }
+    }
+
+    /**
+     * Get the request body as an HTTP entity, e.g. for sending it asynchronously. The entity is only valid until the
+     * writer is reset.
+     *
+     * @return an {@link HttpEntity} backed by the buffers of this writer
+     */
+    public HttpEntity toEntity() {
+        seal();
+        return new BulkRequestEntity(new ArrayList<>(segments), length);
+    }
+
+    /**
+     * Discard all actions and return the buffers to the pool.
+     */
+    public void reset() {
+        for (ByteBuffer owned : ownedBuffers) {
+            pool.release(owned);
+        }
+        ownedBuffers.clear();
+        segments.clear();
+        buffer = null;
+        segmentStart = 0;
+        length = 0L;
+        numberOfActions = 0;
+    }
+
+    /**
+     * Discard all actions and return the buffers to the pool.
+     */
+    @Override
+    public void close() {
+        reset();
+    }
+
+    /**
+     * Sends the request, closing the permit (if any) as soon as it has completed.
+     */
+    private void send(RestClient client, Map<String, String> params, HttpEntity entity, List<ByteBuffer> requestBuffers,
+                      AtomicBoolean pooled, ThrottlePermit permit, CompletableFuture<Response> result) {
+        try {
+            client.performRequestAsync("POST", "/_bulk", params, entity, new ResponseListener() {
+                @Override
+                public void onSuccess(Response response) {
+                    closePermit(permit);
+                    release(requestBuffers, pooled);
+                    result.complete(response);
+                }
+
+                @Override
+                public void onFailure(Exception exception) {
+                    closePermit(permit);
+                    release(requestBuffers, pooled);
+                    result.completeExceptionally(exception);
+                }
+            });
+        } catch (RuntimeException e) {
+            closePermit(permit);
+            release(requestBuffers, pooled);
+            result.completeExceptionally(e);
+        }
+    }
+
+    private static void closePermit(ThrottlePermit permit) {
+        if (permit != null) {
+            permit.close();
+        }
+    }
+
+    private void release(List<ByteBuffer> requestBuffers, AtomicBoolean pooled) {
+        if (pooled.getAndSet(false)) {
+            for (ByteBuffer requestBuffer : requestBuffers) {
+                pool.release(requestBuffer);
+            }
+        }
+    }
+
+    public int numberOfActions() {
+        return numberOfActions;
+    }
+
+    /**
+     * Get the size of the request body.
+     *
+     * @return the number of bytes written so far
+     */
+    public long length() {
+        return length;
+    }
+
+    private void writeActionLine(String action, String index, String type, String id) {
+        checkNotNull(index, "Index must not be null");
+        checkNotNull(type, "Type must not be null");
+
+        write((byte) '{');
+        writeString(action);
+        writeAscii(":{\"_index\":");
+        writeString(index);
+        writeAscii(",\"_type\":");
+        writeString(type);
+        if (id != null) {
+            writeAscii(",\"_id\":");
+            writeString(id);
+        }
+        writeAscii("}}\n");
+        numberOfActions++;
+    }
+
+    private void writeSource(ByteBuffer source) {
+        final ByteBuffer view = source.slice();
+        if (view.remaining() < COPY_THRESHOLD) {
+            while (view.hasRemaining()) {
+                ensureRemaining();
+                final int count = Math.min(view.remaining(), buffer.remaining());
+                final int limit = view.limit();
+                view.limit(view.position() + count);
+                buffer.put(view);
+                view.limit(limit);
+                length += count;
+            }
+        } else {
+            seal();
+            segments.add(view);
+            length += view.remaining();
+        }
+        write((byte) '\n');
+    }
+
+    /**
+     * Writes a JSON string, escaping it as required and encoding it as UTF-8.
+     */
+    private void writeString(String value) {
+        write((byte) '"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                write((byte) '\\');
+                write((byte) c);
+            } else if (c < 0x20) {
+                writeAscii("\\u00");
+                write(HEX_DIGITS[c >> 4]);
+                write(HEX_DIGITS[c & 0xF]);
+            } else if (c < 0x80) {
+                write((byte) c);
+            } else if (c < 0x800) {
+                write((byte) (0xC0 | (c >> 6)));
+                write((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                write((byte) (0xF0 | (codePoint >> 18)));
+                write((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                write((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                write((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                write((byte) '?');
+            } else {
+                write((byte) (0xE0 | (c >> 12)));
+                write((byte) (0x80 | ((c >> 6) & 0x3F)));
+                write((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        write((byte) '"');
+    }
+
+    private void writeAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            write((byte) value.charAt(i));
+        }
+    }
+
+    private void write(byte b) {
+        ensureRemaining();
+        buffer.put(b);
+        length++;
+    }
+
+    private void write(byte[] bytes, int offset, int count) {
+        int written = 0;
+        while (written < count) {
+            ensureRemaining();
+            final int chunk = Math.min(count - written, buffer.remaining());
+            buffer.put(bytes, offset + written, chunk);
+            written += chunk;
+        }
+        length += count;
+    }
+
+    private void ensureRemaining() {
+        if (buffer == null || !buffer.hasRemaining()) {
+            seal();
+            buffer = pool.acquire();
+            ownedBuffers.add(buffer);
+            segmentStart = 0;
+        }
+    }
+
+    /**
+     * Turns everything written to the current buffer since the last segment into a new segment.
+     */
+    private void seal() {
+        if (buffer != null && buffer.position() > segmentStart) {
+            final ByteBuffer segment = buffer.duplicate();
+            segment.limit(buffer.position());
+            segment.position(segmentStart);
+            segments.add(segment.slice());
+            segmentStart = buffer.position();
+        }
+    }
+
+    /**
+     * Lets an {@link XContentBuilder} serialize directly into the pooled buffers.
+     */
+    private class BufferOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) {
+            BulkRequestWriter.this.write((byte) b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int count) {
+            BulkRequestWriter.this.write(bytes, offset, count);
+        }
+
+        @Override
+        public void close() {
+            // the buffers are owned by the writer
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package io.dropwizard.elasticsearch.client;
+
+import io.dropwizard.elasticsearch.ratelimit.EndpointFamily;
+import io.dropwizard.elasticsearch.ratelimit.RequestThrottler;
+import io.dropwizard.elasticsearch.ratelimit.ThrottlePermit;
+import io.dropwizard.elasticsearch.tracing.RequestTracer;
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.HttpAsyncResponseConsumerFactory;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.CheckedFunction;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The {@link RestHighLevelClient} created by {@link io.dropwizard.elasticsearch.managed.ManagedEsClient}.
+ * <p>
+ * All requests of the high-level API go through the protected {@code performRequest} and
+ * {@code performRequestAsync} hooks of {@link RestHighLevelClient}, which this client implements on top of the
+ * low-level {@link RestClient}, handling ignored status codes and error responses the same way. This lets it report
+ * slow requests (timed until the response has been received completely, with the {@code took} of search and bulk
+ * responses) and requests which fail before a response is received (e.g. timeouts) to the {@link RequestTracer},
+ * tag requests with an {@code X-Opaque-Id} before they are sent if opaque IDs are generated, and consume every
+ * response with the configured {@link HttpAsyncResponseConsumerFactory}.
+ * <p>
+ * If a {@link RequestThrottler} is given, every request is passed through it before it is handed to the connection
+ * pool. The caller tag of a request is taken from its {@link #CALLER_TAG_HEADER} header, which is removed before the
+ * request is sent, e.g. {@code client.search(request, EsRestHighLevelClient.callerTag("batch"))}. Requests without
+ * the header use the default tag. Synchronous requests wait on the calling thread, asynchronous requests are queued
+ * and sent once they may proceed, without blocking the calling thread. Requests sent through
+ * {@link #getLowLevelClient()} aren't throttled; they can acquire a {@link ThrottlePermit} from the
+ * {@link RequestThrottler} themselves.
+ */
+public class EsRestHighLevelClient extends RestHighLevelClient {
+
+    public static final String CALLER_TAG_HEADER = "X-Caller-Tag";
+
+    private final RequestTracer requestTracer;
+    private final RequestThrottler requestThrottler;
+    private final HttpAsyncResponseConsumerFactory responseConsumerFactory;
+
+    /**
+     * Create a new Elasticsearch client which buffers responses with {@link HttpAsyncResponseConsumerFactory#DEFAULT}.
+     *
+     * @param restClientBuilder the {@link RestClientBuilder} of the low-level client
+     * @param requestTracer     the {@link RequestTracer} slow and failed requests are reported to, or {@literal null}
+     *                          if requests aren't traced
+     */
+    public EsRestHighLevelClient(RestClientBuilder restClientBuilder, RequestTracer requestTracer) {
+        this(restClientBuilder, requestTracer, HttpAsyncResponseConsumerFactory.DEFAULT);
+    }
+
+    /**
+     * Create a new Elasticsearch client.
+     *
+     * @param restClientBuilder       the {@link RestClientBuilder} of the low-level client
+     * @param requestTracer           the {@link RequestTracer} slow and failed requests are reported to, or
+     *                                {@literal null} if requests aren't traced
+     * @param responseConsumerFactory the {@link HttpAsyncResponseConsumerFactory} used for all responses
+     */
+    public EsRestHighLevelClient(RestClientBuilder restClientBuilder, RequestTracer requestTracer,
+                                 HttpAsyncResponseConsumerFactory responseConsumerFactory) {
+        this(restClientBuilder, requestTracer, null, responseConsumerFactory);
+    }
+
+    /**
+     * Create a new Elasticsearch client.
+     *
+     * @param restClientBuilder       the {@link RestClientBuilder} of the low-level client
+     * @param requestTracer           the {@link RequestTracer} slow and failed requests are reported to, or
+     *                                {@literal null} if requests aren't traced
+     * @param requestThrottler        the {@link RequestThrottler} applied to all requests, or {@literal null} if
+     *                                requests aren't throttled
+     * @param responseConsumerFactory the {@link HttpAsyncResponseConsumerFactory} used for all responses
+     */
+    public EsRestHighLevelClient(RestClientBuilder restClientBuilder, RequestTracer requestTracer,
+                                 RequestThrottler requestThrottler,
+                                 HttpAsyncResponseConsumerFactory responseConsumerFactory) {
+        super(restClientBuilder);
+        this.requestTracer = requestTracer;
+        this.requestThrottler = requestThrottler;
+        this.responseConsumerFactory = checkNotNull(responseConsumerFactory,
+                "HttpAsyncResponseConsumerFactory must not be null");
+    }
+
+    /**
+     * Create a new Elasticsearch client on top of an existing low-level client, which is closed with this client.
+     *
+     * @param restClient              the low-level {@link RestClient}
+     * @param requestTracer           the {@link RequestTracer} slow and failed requests are reported to, or
+     *                                {@literal null} if requests aren't traced
+     * @param requestThrottler        the {@link RequestThrottler} applied to all requests, or {@literal null} if
+     *                                requests aren't throttled
+     * @param responseConsumerFactory the {@link HttpAsyncResponseConsumerFactory} used for all responses
+     */
+    protected EsRestHighLevelClient(RestClient restClient, RequestTracer requestTracer,
+                                    RequestThrottler requestThrottler,
+                                    HttpAsyncResponseConsumerFactory responseConsumerFactory) {
+        super(restClient, RestClient::close, Collections.emptyList());
+        this.requestTracer = requestTracer;
+        this.requestThrottler = requestThrottler;
+        this.responseConsumerFactory = checkNotNull(responseConsumerFactory,
+                "HttpAsyncResponseConsumerFactory must not be null");
+    }
+
+    /**
+     * Create the header which tags a request with the given caller tag.
+     *
+     * @param tag the caller tag, e.g. {@code interactive}, {@code batch} or {@code export}
+     * @return a {@link #CALLER_TAG_HEADER} header
+     */
+    public static Header callerTag(String tag) {
+        return new BasicHeader(CALLER_TAG_HEADER, checkNotNull(tag, "Caller tag must not be null"));
+    }
+
+    public RequestThrottler getRequestThrottler() {
+        return requestThrottler;
+    }
+
+    public HttpAsyncResponseConsumerFactory getResponseConsumerFactory() {
+        return responseConsumerFactory;
+    }
+
+    @Override
+    protected <Req extends ActionRequest, Resp> Resp performRequest(Req request,
+                                                                    CheckedFunction<Req, Request, IOException> requestConverter,
+                                                                    CheckedFunction<Response, Resp, IOException> responseConverter,
+                                                                    Set<Integer> ignores,
+                                                                    Header... headers) throws IOException {
+        final ActionRequestValidationException validationException = request.validate();
+        if (validationException != null) {
+            throw validationException;
+        }
+
+        final Request req = requestConverter.apply(request);
+        final Header[] requestHeaders = requestHeaders(headers);
+        if (requestThrottler == null) {
+            return performRequest(req, responseConverter, ignores, requestHeaders);
+        }
+
+        final ThrottlePermit permit = requestThrottler.acquire(findCallerTag(headers),
+                endpointFamily(req.getMethod(), req.getEndpoint()));
+        try {
+            return performRequest(req, responseConverter, ignores, requestHeaders);
+        } finally {
+            permit.close();
+        }
+    }
+
+    private <Resp> Resp performRequest(Request req, CheckedFunction<Response, Resp, IOException> responseConverter,
+                                       Set<Integer> ignores, Header[] requestHeaders) throws IOException {
+        final long startNanos = System.nanoTime();
+        final Response response;
+        try {
+            response = getLowLevelClient().performRequest(req.getMethod(), req.getEndpoint(), req.getParameters(),
+                    req.getEntity(), responseConsumerFactory, requestHeaders);
+        } catch (ResponseException e) {
+            traceIfSlow(req, requestHeaders, e.getResponse(), System.nanoTime() - startNanos, null);
+            if (ignores.contains(e.getResponse().getStatusLine().getStatusCode())) {
+                try {
+                    return responseConverter.apply(e.getResponse());
+                } catch (Exception innerException) {
+                    throw parseResponseException(e);
+                }
+            }
+            throw parseResponseException(e);
+        } catch (IOException e) {
+            traceFailure(req, requestHeaders, startNanos, e);
+            throw e;
+        }
+
+        final long wallTimeNanos = System.nanoTime() - startNanos;
+        final Resp parsed;
+        try {
+            parsed = responseConverter.apply(response);
+        } catch (Exception e) {
+            throw new IOException("Unable to parse response body for " + response, e);
+        }
+        traceIfSlow(req, requestHeaders, response, wallTimeNanos, parsed);
+        return parsed;
+    }
+
+    @Override
+    protected <Req extends ActionRequest, Resp> void performRequestAsync(Req request,
+                                                                         CheckedFunction<Req, Request, IOException> requestConverter,
+                                                                         CheckedFunction<Response, Resp, IOException> responseConverter,
+                                                                         ActionListener<Resp> listener,
+                                                                         Set<Integer> ignores,
+                                                                         Header... headers) {
+        final ActionRequestValidationException validationException = request.validate();
+        if (validationException != null) {
+            listener.onFailure(validationException);
+            return;
+        }
+
+        final Request req;
+        try {
+            req = requestConverter.apply(request);
+        } catch (Exception e) {
+            listener.onFailure(e);
+            return;
+        }
+
+        final Header[] requestHeaders = requestHeaders(headers);
+        if (requestThrottler == null) {
+            performRequestAsync(req, responseConverter, listener, ignores, requestHeaders, null);
+            return;
+        }
+
+        requestThrottler.acquireAsync(findCallerTag(headers), endpointFamily(req.getMethod(), req.getEndpoint()))
+                .whenComplete((permit, failure) -> {
+                    if (failure != null) {
+                        listener.onFailure(failure instanceof Exception ? (Exception) failure : new IOException(failure));
+                        return;
+                    }
+                    try {
+                        performRequestAsync(req, responseConverter, listener, ignores, requestHeaders, permit);
+                    } catch (RuntimeException e) {
+                        permit.close();
+                        listener.onFailure(e);
+                    }
+                });
+    }
+
+    /**
+     * Sends a request asynchronously, closing the given permit (if any) as soon as the request has completed.
+     */
+    private <Resp> void performRequestAsync(Request req, CheckedFunction<Response, Resp, IOException> responseConverter,
+                                            ActionListener<Resp> listener, Set<Integer> ignores,
+                                            Header[] requestHeaders, ThrottlePermit permit) {
+        final long startNanos = System.nanoTime();
+        getLowLevelClient().performRequestAsync(req.getMethod(), req.getEndpoint(), req.getParameters(),
+                req.getEntity(), responseConsumerFactory, new ResponseListener() {
+                    @Override
+                    public void onSuccess(Response response) {
+                        final long wallTimeNanos = System.nanoTime() - startNanos;
+                        release(permit);
+                        final Resp parsed;
+                        try {
+                            parsed = responseConverter.apply(response);
+                        } catch (Exception e) {
+                            listener.onFailure(new IOException("Unable to parse response body for " + response, e));
+                            return;
+                        }
+                        traceIfSlow(req, requestHeaders, response, wallTimeNanos, parsed);
+                        listener.onResponse(parsed);
+                    }
+
+                    @Override
+                    public void onFailure(Exception exception) {
+                        release(permit);
+                        if (exception instanceof ResponseException) {
+                            traceIfSlow(req, requestHeaders, ((ResponseException) exception).getResponse(),
+                                    System.nanoTime() - startNanos, null);
+                            onResponseException((ResponseException) exception, responseConverter, listener, ignores);
+                        } else {
+                            traceFailure(req, requestHeaders, startNanos, exception);
+                            listener.onFailure(exception);
+                        }
+                    }
+                }, requestHeaders);
+    }
+
+    private <Resp> void onResponseException(ResponseException exception,
+                                            CheckedFunction<Response, Resp, IOException> responseConverter,
+                                            ActionListener<Resp> listener, Set<Integer> ignores) {
+        if (ignores.contains(exception.getResponse().getStatusLine().getStatusCode())) {
+            final Resp parsed;
+            try {
+                parsed = responseConverter.apply(exception.getResponse());
+            } catch (Exception innerException) {
+                listener.onFailure(parseResponseException(exception));
+                return;
+            }
+            listener.onResponse(parsed);
+        } else {
+            listener.onFailure(parseResponseException(exception));
+        }
+    }
+
+    /**
+     * Removes the caller tag from the headers and adds an opaque ID if requests are traced.
+     */
+    private Header[] requestHeaders(Header[] headers) {
+        final Header[] requestHeaders = withoutCallerTag(headers);
+        return requestTracer == null ? requestHeaders : requestTracer.ensureOpaqueId(requestHeaders);
+    }
+
+    private static void release(ThrottlePermit permit) {
+        if (permit != null) {
+            permit.close();
+        }
+    }
+
+    static String findCallerTag(Header[] headers) {
+        for (Header header : headers) {
+            if (CALLER_TAG_HEADER.equalsIgnoreCase(header.getName())) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    static Header[] withoutCallerTag(Header[] headers) {
+        if (findCallerTag(headers) == null) {
+            return headers;
+        }
+        return Arrays.stream(headers)
+                .filter(header -> !CALLER_TAG_HEADER.equalsIgnoreCase(header.getName()))
+                .toArray(Header[]::new);
+    }
+
+    /**
+     * Derives the {@link EndpointFamily} of a request of the high-level API from its method and endpoint.
+     */
+    static EndpointFamily endpointFamily(String method, String endpoint) {
+        if (endpoint.endsWith("/_bulk")) {
+            return EndpointFamily.BULK;
+        } else if (endpoint.contains("/_search") || endpoint.contains("/_msearch")) {
+            return EndpointFamily.SEARCH;
+        } else if ("/".equals(endpoint) || endpoint.startsWith("/_")) {
+            return EndpointFamily.ADMIN;
+        } else if ("GET".equals(method) || "HEAD".equals(method)) {
+            return EndpointFamily.GET;
+        }
+        return EndpointFamily.WRITE;
+    }
+
+    /**
+     * Logs a request whose response has been received completely if it exceeded the slow request threshold. The wall
+     * time is taken before the response is parsed.
+     */
+    private void traceIfSlow(Request request, Header[] headers, Response response, long wallTimeNanos,
+                             Object parsed) {
+        if (requestTracer != null && requestTracer.isSlow(wallTimeNanos)) {
+            requestTracer.slow(request.getMethod(), request.getEndpoint(), request.getEntity(), headers, response,
+                    wallTimeNanos, tookMillis(parsed));
+        }
+    }
+
+    /**
+     * Gets the time Elasticsearch reported to have spent on a request from its parsed response, if it reports one.
+     */
+    static long tookMillis(Object response) {
+        if (response instanceof SearchResponse) {
+            return ((SearchResponse) response).getTook().millis();
+        } else if (response instanceof BulkResponse) {
+            return ((BulkResponse) response).getTook().millis();
+        }
+        return -1L;
+    }
+
+    private void traceFailure(Request request, Header[] headers, long startNanos, Exception failure) {
+        if (requestTracer != null) {
+            requestTracer.failed(request.getMethod(), request.getEndpoint(), request.getEntity(), headers,
+                    System.nanoTime() - startNanos, failure);
+        }
+    }
+}
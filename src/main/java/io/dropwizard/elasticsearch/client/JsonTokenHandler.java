@@ -0,0 +1,64 @@
+package io.dropwizard.elasticsearch.client;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import org.apache.http.HttpResponse;
+
+import java.io.IOException;
+
+/**
+ * A {@link ResponseBodyHandler} which feeds a JSON response body into a non-blocking Jackson parser and hands every
+ * complete token to {@link #onToken(JsonToken, JsonParser)}, so that a response can be processed without holding all
+ * of it in memory.
+ */
+public abstract class JsonTokenHandler implements ResponseBodyHandler {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private JsonParser parser = null;
+
+    @Override
+    public void onStart(HttpResponse response) throws IOException {
+        if (parser != null) {
+            parser.close();
+        }
+        parser = JSON_FACTORY.createNonBlockingByteArrayParser();
+        reset();
+    }
+
+    @Override
+    public void onContent(byte[] buffer, int offset, int length) throws IOException {
+        ((ByteArrayFeeder) parser.getNonBlockingInputFeeder()).feedInput(buffer, offset, offset + length);
+        nextTokens();
+    }
+
+    @Override
+    public void onComplete() throws IOException {
+        ((ByteArrayFeeder) parser.getNonBlockingInputFeeder()).endOfInput();
+        nextTokens();
+        parser.close();
+    }
+
+    /**
+     * Called before a new response body is parsed; discard any state collected from a previous response.
+     */
+    protected abstract void reset();
+
+    /**
+     * Called for every token of the response body.
+     *
+     * @param token  the current token
+     * @param parser the parser, positioned at {@code token}
+     * @throws IOException if the token can't be handled
+     */
+    protected abstract void onToken(JsonToken token, JsonParser parser) throws IOException;
+
+    private void nextTokens() throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            onToken(token, parser);
+        }
+    }
+}
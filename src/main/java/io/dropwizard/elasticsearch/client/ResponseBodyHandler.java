@@ -0,0 +1,40 @@
+package io.dropwizard.elasticsearch.client;
+
+import org.apache.http.HttpResponse;
+
+import java.io.IOException;
+
+/**
+ * Receives the body of a successful Elasticsearch response piece by piece, as it is read from the connection by a
+ * {@link StreamingResponseConsumerFactory streaming response consumer}.
+ * <p>
+ * The handler is called on an I/O thread of the HTTP client, so it should only parse the body and not block.
+ */
+public interface ResponseBodyHandler {
+
+    /**
+     * Called when a successful response starts. If a request is retried on another node, this is called again and
+     * the handler must discard everything it has seen before.
+     *
+     * @param response the response, without its body
+     * @throws IOException if the response can't be handled
+     */
+    void onStart(HttpResponse response) throws IOException;
+
+    /**
+     * Called for each piece of the response body. The buffer is reused once this method returns.
+     *
+     * @param buffer the buffer holding the piece of the body
+     * @param offset the offset of the piece in {@code buffer}
+     * @param length the length of the piece
+     * @throws IOException if the piece can't be handled
+     */
+    void onContent(byte[] buffer, int offset, int length) throws IOException;
+
+    /**
+     * Called when the whole body has been received.
+     *
+     * @throws IOException if the end of the body can't be handled
+     */
+    void onComplete() throws IOException;
+}
@@ -0,0 +1,115 @@
+package io.dropwizard.elasticsearch.client;
+
+import io.dropwizard.elasticsearch.util.ByteBufferPool;
+import org.apache.http.ContentTooLongException;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * An HTTP response consumer which reads the body of successful responses into a single pooled buffer and hands it to
+ * a {@link ResponseBodyHandler} piece by piece. Error responses are buffered on the heap up to a limit, so that the
+ * {@link org.elasticsearch.client.RestClient} can report them as usual.
+ */
+class StreamingResponseConsumer extends AbstractAsyncResponseConsumer<HttpResponse> {
+
+    private static final int SUCCESS_STATUS_LIMIT = 300;
+
+    private final ByteBufferPool pool;
+    private final int errorBufferLimit;
+    private final ResponseBodyHandler handler;
+
+    private HttpResponse response = null;
+    private ContentType contentType = null;
+    private boolean streaming = false;
+    private ByteBuffer buffer = null;
+    private ByteArrayOutputStream errorBody = null;
+
+    StreamingResponseConsumer(ByteBufferPool pool, int errorBufferLimit, ResponseBodyHandler handler) {
+        this.pool = pool;
+        this.errorBufferLimit = errorBufferLimit;
+        this.handler = handler;
+    }
+
+    @Override
+    protected void onResponseReceived(HttpResponse response) throws HttpException, IOException {
+        this.response = response;
+        this.streaming = response.getStatusLine().getStatusCode() < SUCCESS_STATUS_LIMIT;
+        if (streaming) {
+            handler.onStart(response);
+        }
+    }
+
+    @Override
+    protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) throws IOException {
+        this.contentType = contentType;
+        final long length = entity.getContentLength();
+        if (!streaming) {
+            if (length > errorBufferLimit) {
+                throw new ContentTooLongException("entity content is too long [" + length
+                        + "] for the configured buffer limit [" + errorBufferLimit + "]");
+            }
+            errorBody = new ByteArrayOutputStream(length > 0 ? (int) length : 4096);
+        }
+    }
+
+    @Override
+    protected void onContentReceived(ContentDecoder decoder, IOControl ioControl) throws IOException {
+        if (buffer == null) {
+            buffer = pool.acquire();
+        }
+
+        int read;
+        while ((read = decoder.read(buffer)) > 0) {
+            if (streaming) {
+                handler.onContent(buffer.array(), buffer.arrayOffset(), read);
+            } else {
+                if (errorBody.size() + read > errorBufferLimit) {
+                    throw new ContentTooLongException("entity content is too long for the configured buffer limit ["
+                            + errorBufferLimit + "]");
+                }
+                errorBody.write(buffer.array(), buffer.arrayOffset(), read);
+            }
+            buffer.clear();
+        }
+    }
+
+    @Override
+    protected HttpResponse buildResult(HttpContext context) throws Exception {
+        if (streaming) {
+            handler.onComplete();
+            final BasicHttpEntity entity = new BasicHttpEntity();
+            entity.setContent(new ByteArrayInputStream(new byte[0]));
+            entity.setContentLength(0L);
+            if (contentType != null) {
+                entity.setContentType(contentType.toString());
+            }
+            response.setEntity(entity);
+        } else if (errorBody != null) {
+            response.setEntity(new ByteArrayEntity(errorBody.toByteArray(), contentType));
+        }
+        return response;
+    }
+
+    @Override
+    protected void releaseResources() {
+        if (buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+        }
+        errorBody = null;
+        response = null;
+    }
+}
@@ -0,0 +1,53 @@
+package io.dropwizard.elasticsearch.client;
+
+import io.dropwizard.elasticsearch.util.ByteBufferPool;
+import org.apache.http.HttpResponse;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.elasticsearch.client.HttpAsyncResponseConsumerFactory;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A {@link HttpAsyncResponseConsumerFactory} for the low-level {@link org.elasticsearch.client.RestClient} which streams
+ * the body of successful responses to a {@link ResponseBodyHandler} instead of buffering all of it on the heap.
+ * Each response holds at most one buffer of the given {@link ByteBufferPool} while it is read.
+ * <p>
+ * The body of the {@link org.elasticsearch.client.Response} returned by the client is empty, it has already been
+ * handed to the {@link ResponseBodyHandler}. Error responses are buffered up to {@code errorBufferLimit} bytes.
+ * <p>
+ * A factory must only be used for a single request, as it passes the body to a single handler:
+ * <pre>
+ * client.getLowLevelClient().performRequest("GET", "/_stats", params, null,
+ *         new StreamingResponseConsumerFactory(pool, bufferLimit, handler));
+ * </pre>
+ */
+public class StreamingResponseConsumerFactory implements HttpAsyncResponseConsumerFactory {
+
+    private final ByteBufferPool pool;
+    private final int errorBufferLimit;
+    private final ResponseBodyHandler handler;
+
+    /**
+     * Create a new streaming response consumer factory.
+     *
+     * @param pool             a pool of heap buffers the body is read into
+     * @param errorBufferLimit the maximum size of an error response body in bytes
+     * @param handler          the {@link ResponseBodyHandler} the body is handed to
+     * @throws IllegalArgumentException if {@code pool} holds direct buffers or {@code errorBufferLimit} is not positive
+     */
+    public StreamingResponseConsumerFactory(ByteBufferPool pool, int errorBufferLimit, ResponseBodyHandler handler) {
+        checkArgument(!checkNotNull(pool, "ByteBufferPool must not be null").isDirect(),
+                "The ByteBufferPool must hold heap buffers");
+        checkArgument(errorBufferLimit > 0, "The error buffer limit must at least be 1");
+
+        this.pool = pool;
+        this.errorBufferLimit = errorBufferLimit;
+        this.handler = checkNotNull(handler, "ResponseBodyHandler must not be null");
+    }
+
+    @Override
+    public HttpAsyncResponseConsumer<HttpResponse> createHttpAsyncResponseConsumer() {
+        return new StreamingResponseConsumer(pool, errorBufferLimit, handler);
+    }
+}
@@ -0,0 +1,30 @@
+package io.dropwizard.elasticsearch.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Configuration class for bulk load sessions opened through
+ * {@link io.dropwizard.elasticsearch.managed.ManagedEsClient#openBulkLoadSession(String...)}.
+ */
+public class BulkLoadConfiguration {
+
+    @JsonProperty
+    @Min(1)
+    private Integer forceMergeMaxSegments = null;
+
+    @JsonProperty
+    @NotNull
+    private Duration greenTimeout = Duration.minutes(30);
+
+    public Integer getForceMergeMaxSegments() {
+        return forceMergeMaxSegments;
+    }
+
+    public Duration getGreenTimeout() {
+        return greenTimeout;
+    }
+}
@@ -0,0 +1,44 @@
+package io.dropwizard.elasticsearch.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+import io.dropwizard.util.SizeUnit;
+import io.dropwizard.validation.MaxSize;
+import io.dropwizard.validation.MinSize;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Configuration class for the buffer pool and timeout of
+ * {@link io.dropwizard.elasticsearch.managed.ManagedEsClient#newBulkRequestWriter()}.
+ */
+public class BulkWriterConfiguration {
+
+    @JsonProperty
+    @NotNull
+    @MinSize(1)
+    @MaxSize(value = 1, unit = SizeUnit.GIGABYTES)
+    private Size bufferSize = Size.kilobytes(64);
+
+    @JsonProperty
+    @Min(1)
+    private int maxPooledBuffers = 256;
+
+    @JsonProperty
+    @NotNull
+    private Duration requestTimeout = Duration.seconds(30);
+
+    public Size getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getMaxPooledBuffers() {
+        return maxPooledBuffers;
+    }
+
+    public Duration getRequestTimeout() {
+        return requestTimeout;
+    }
+}
@@ -5,6 +5,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import io.dropwizard.validation.ValidationMethod;
 import org.hibernate.validator.constraints.NotEmpty;
 
+import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
 import java.util.Collections;
 import java.util.List;
@@ -30,6 +31,31 @@ public class EsConfiguration {
     @JsonProperty
     private String settingsFile = null;
 
+    @JsonProperty
+    @Valid
+    @NotNull
+    private RequestTracingConfiguration requestTracing = new RequestTracingConfiguration();
+
+    @JsonProperty
+    @Valid
+    @NotNull
+    private BulkLoadConfiguration bulkLoad = new BulkLoadConfiguration();
+
+    @JsonProperty
+    @Valid
+    @NotNull
+    private BulkWriterConfiguration bulkWriter = new BulkWriterConfiguration();
+
+    @JsonProperty
+    @Valid
+    @NotNull
+    private ResponseConsumerConfiguration responses = new ResponseConsumerConfiguration();
+
+    @JsonProperty
+    @Valid
+    @NotNull
+    private RateLimitConfiguration rateLimits = new RateLimitConfiguration();
+
     public List<String> getServers() {
         return servers;
     }
@@ -46,6 +72,26 @@ public class EsConfiguration {
         return settingsFile;
     }
 
+    public RequestTracingConfiguration getRequestTracing() {
+        return requestTracing;
+    }
+
+    public BulkLoadConfiguration getBulkLoad() {
+        return bulkLoad;
+    }
+
+    public BulkWriterConfiguration getBulkWriter() {
+        return bulkWriter;
+    }
+
+    public ResponseConsumerConfiguration getResponses() {
+        return responses;
+    }
+
+    public RateLimitConfiguration getRateLimits() {
+        return rateLimits;
+    }
+
     @ValidationMethod
     @JsonIgnore
     public boolean isValidConfig() {
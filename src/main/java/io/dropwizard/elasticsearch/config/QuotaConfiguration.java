@@ -0,0 +1,54 @@
+package io.dropwizard.elasticsearch.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.elasticsearch.ratelimit.EndpointFamily;
+import org.hibernate.validator.constraints.NotEmpty;
+
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+
+/**
+ * Configuration class for the rate limit and concurrency quota of a caller tag, optionally restricted to one
+ * {@link EndpointFamily}.
+ */
+public class QuotaConfiguration {
+
+    @JsonProperty
+    @NotEmpty
+    private String tag;
+
+    @JsonProperty
+    private EndpointFamily endpointFamily = null;
+
+    @JsonProperty
+    @DecimalMin(value = "0.0", inclusive = false)
+    private Double requestsPerSecond = null;
+
+    @JsonProperty
+    @Min(1)
+    private int burst = 1;
+
+    @JsonProperty
+    @Min(1)
+    private Integer maxConcurrentRequests = null;
+
+    public String getTag() {
+        return tag;
+    }
+
+    public EndpointFamily getEndpointFamily() {
+        return endpointFamily;
+    }
+
+    public Double getRequestsPerSecond() {
+        return requestsPerSecond;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    public Integer getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+}
@@ -0,0 +1,67 @@
+package io.dropwizard.elasticsearch.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+import org.elasticsearch.client.RestClientBuilder;
+import org.hibernate.validator.constraints.NotEmpty;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Configuration class for client-side rate limits and concurrency quotas of the managed Elasticsearch client.
+ */
+public class RateLimitConfiguration {
+
+    @JsonProperty
+    private boolean enabled = false;
+
+    @JsonProperty
+    @Min(1)
+    private int maxConcurrentRequests = RestClientBuilder.DEFAULT_MAX_CONN_TOTAL;
+
+    @JsonProperty
+    @NotEmpty
+    private String defaultTag = "default";
+
+    @JsonProperty
+    @NotNull
+    private Duration maxWait = Duration.seconds(30);
+
+    @JsonProperty
+    @NotNull
+    private Map<String, Integer> priorities = Collections.emptyMap();
+
+    @JsonProperty
+    @Valid
+    @NotNull
+    private List<QuotaConfiguration> quotas = Collections.emptyList();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    public String getDefaultTag() {
+        return defaultTag;
+    }
+
+    public Duration getMaxWait() {
+        return maxWait;
+    }
+
+    public Map<String, Integer> getPriorities() {
+        return priorities;
+    }
+
+    public List<QuotaConfiguration> getQuotas() {
+        return quotas;
+    }
+}
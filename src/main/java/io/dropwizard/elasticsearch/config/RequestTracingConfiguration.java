@@ -0,0 +1,71 @@
+package io.dropwizard.elasticsearch.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+import org.hibernate.validator.constraints.NotEmpty;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Configuration class for the slow request log and request sampling of the managed Elasticsearch client.
+ */
+public class RequestTracingConfiguration {
+
+    @JsonProperty
+    private boolean enabled = true;
+
+    @JsonProperty
+    @NotNull
+    private Duration slowRequestThreshold = Duration.seconds(1);
+
+    @JsonProperty
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    private double sampleRate = 0.0d;
+
+    @JsonProperty
+    @Min(1)
+    private int sampleBufferSize = 256;
+
+    @JsonProperty
+    @Min(0)
+    private int maxLoggedBodyLength = 1024;
+
+    @JsonProperty
+    private boolean generateOpaqueIds = false;
+
+    @JsonProperty
+    @NotEmpty
+    private String opaqueIdPrefix = "dropwizard-";
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Duration getSlowRequestThreshold() {
+        return slowRequestThreshold;
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getSampleBufferSize() {
+        return sampleBufferSize;
+    }
+
+    public int getMaxLoggedBodyLength() {
+        return maxLoggedBodyLength;
+    }
+
+    public boolean isGenerateOpaqueIds() {
+        return generateOpaqueIds;
+    }
+
+    public String getOpaqueIdPrefix() {
+        return opaqueIdPrefix;
+    }
+}
@@ -0,0 +1,44 @@
+package io.dropwizard.elasticsearch.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Size;
+import io.dropwizard.util.SizeUnit;
+import io.dropwizard.validation.MaxSize;
+import io.dropwizard.validation.MinSize;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Configuration class for how responses to low-level requests of the managed Elasticsearch client are consumed.
+ */
+public class ResponseConsumerConfiguration {
+
+    @JsonProperty
+    @NotNull
+    @MinSize(1)
+    @MaxSize(value = 1, unit = SizeUnit.GIGABYTES)
+    private Size bufferLimit = Size.megabytes(100);
+
+    @JsonProperty
+    @NotNull
+    @MinSize(1)
+    @MaxSize(value = 1, unit = SizeUnit.GIGABYTES)
+    private Size streamingBufferSize = Size.kilobytes(16);
+
+    @JsonProperty
+    @Min(1)
+    private int maxPooledStreamingBuffers = 64;
+
+    public Size getBufferLimit() {
+        return bufferLimit;
+    }
+
+    public Size getStreamingBufferSize() {
+        return streamingBufferSize;
+    }
+
+    public int getMaxPooledStreamingBuffers() {
+        return maxPooledStreamingBuffers;
+    }
+}
@@ -0,0 +1,87 @@
+package io.dropwizard.elasticsearch.config;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+import io.dropwizard.validation.ValidationMethod;
+import org.hibernate.validator.constraints.NotEmpty;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Configuration class for a time-series write alias which is rolled over to a new index by
+ * {@link io.dropwizard.elasticsearch.managed.ManagedRolloverIndex}.
+ */
+public class RolloverConfiguration {
+
+    @JsonProperty
+    @NotEmpty
+    private String writeAlias;
+
+    @JsonProperty
+    private String readAlias = null;
+
+    @JsonProperty
+    @Min(1)
+    private Long maxDocs = null;
+
+    @JsonProperty
+    private Size maxSize = null;
+
+    @JsonProperty
+    private Duration maxAge = null;
+
+    @JsonProperty
+    @NotNull
+    private Duration checkInterval = Duration.minutes(1);
+
+    @JsonProperty
+    @NotNull
+    private Duration maxCheckDelay = Duration.minutes(5);
+
+    @JsonProperty
+    @NotNull
+    private Map<String, String> indexSettings = Collections.emptyMap();
+
+    public String getWriteAlias() {
+        return writeAlias;
+    }
+
+    public String getReadAlias() {
+        return readAlias;
+    }
+
+    public Long getMaxDocs() {
+        return maxDocs;
+    }
+
+    public Size getMaxSize() {
+        return maxSize;
+    }
+
+    public Duration getMaxAge() {
+        return maxAge;
+    }
+
+    public Duration getCheckInterval() {
+        return checkInterval;
+    }
+
+    public Duration getMaxCheckDelay() {
+        return maxCheckDelay;
+    }
+
+    public Map<String, String> getIndexSettings() {
+        return indexSettings;
+    }
+
+    @ValidationMethod(message = "at least one of maxDocs, maxSize or maxAge must be set")
+    @JsonIgnore
+    public boolean isValidConfig() {
+        return maxDocs != null || maxSize != null || maxAge != null;
+    }
+}
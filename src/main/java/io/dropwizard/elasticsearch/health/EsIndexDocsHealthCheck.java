@@ -1,18 +1,22 @@
 package io.dropwizard.elasticsearch.health;
 
 import com.codahale.metrics.health.HealthCheck;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.google.common.collect.ImmutableList;
-import org.elasticsearch.action.admin.indices.stats.IndexStats;
-import org.elasticsearch.action.admin.indices.stats.IndicesStatsResponse;
-import org.elasticsearch.client.Response;
+import io.dropwizard.elasticsearch.client.JsonTokenHandler;
+import io.dropwizard.elasticsearch.client.StreamingResponseConsumerFactory;
+import io.dropwizard.elasticsearch.util.ByteBufferPool;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.InputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -20,6 +24,9 @@ import static com.google.common.base.Preconditions.checkNotNull;
 /**
  * A {@link HealthCheck} which checks if one or more indices in Elasticsearch contain a given number of documents
  * in their primaries.
+ * <p>
+ * Only the document statistics of the given indices are requested, and the response is parsed while it is being read
+ * instead of being buffered on the heap.
  *
  * @see <a href="http://www.elasticsearch.org/guide/reference/api/admin-indices-stats/">Admin Indices Stats</a>
  */
@@ -27,9 +34,12 @@ public class EsIndexDocsHealthCheck extends HealthCheck {
 
     private final Logger logger = LoggerFactory.getLogger(EsIndexDocsHealthCheck.class);
     private static final long DEFAULT_DOCUMENT_THRESHOLD = 1L;
+    private static final int BUFFER_SIZE = 8192;
+    private static final int ERROR_BUFFER_LIMIT = 1024 * 1024;
     private final RestHighLevelClient client;
     private final String[] indices;
     private final long documentThreshold;
+    private final ByteBufferPool bufferPool = new ByteBufferPool(BUFFER_SIZE, 1, false);
 
     /**
      * Construct a new Elasticsearch index document count health check.
@@ -92,25 +102,22 @@ public class EsIndexDocsHealthCheck extends HealthCheck {
      */
     @Override
     protected Result check() throws Exception {
-        Response response = client.getLowLevelClient().performRequest("GET", "/_stats");
-        ObjectMapper objectMapper = new ObjectMapper();
-
-        IndicesStatsResponse indicesStatsResponse;
-        try (InputStream is = response.getEntity().getContent()) {
-            indicesStatsResponse = objectMapper.readValue(is, IndicesStatsResponse.class);
-        }
+        final DocumentCountHandler handler = new DocumentCountHandler();
+        client.getLowLevelClient().performRequest("GET", "/" + String.join(",", indices) + "/_stats/docs",
+                Collections.<String, String>emptyMap(), null,
+                new StreamingResponseConsumerFactory(bufferPool, ERROR_BUFFER_LIMIT, handler));
 
         final List<String> indexDetails = new ArrayList<String>(indices.length);
         boolean healthy = true;
 
-        for (IndexStats indexStats : indicesStatsResponse.getIndices().values()) {
-            long documentCount = indexStats.getPrimaries().getDocs().getCount();
+        for (Map.Entry<String, Long> indexStats : handler.getDocumentCounts().entrySet()) {
+            long documentCount = indexStats.getValue();
 
             if (documentCount < documentThreshold) {
                 healthy = false;
-                indexDetails.add(String.format("%s (%d)", indexStats.getIndex(), documentCount));
+                indexDetails.add(String.format("%s (%d)", indexStats.getKey(), documentCount));
             } else {
-                indexDetails.add(String.format("%s (%d!)", indexStats.getIndex(), documentCount));
+                indexDetails.add(String.format("%s (%d!)", indexStats.getKey(), documentCount));
             }
         }
 
@@ -123,4 +130,61 @@ public class EsIndexDocsHealthCheck extends HealthCheck {
         logger.warn("Index docs health check status unhealthy. " + resultDetails);
         return Result.unhealthy(resultDetails);
     }
-}
\ No newline at end of file
+
+    /**
+     * Collects {@code indices.<index>.primaries.docs.count} from an indices stats response while it is being read.
+     */
+    static class DocumentCountHandler extends JsonTokenHandler {
+
+        private static final String[] COUNT_PATH = {null, "indices", null, "primaries", "docs", "count"};
+
+        private final Map<String, Long> documentCounts = new LinkedHashMap<>();
+        private final String[] fieldNames = new String[COUNT_PATH.length];
+        private int depth = 0;
+
+        @Override
+        protected void reset() {
+            documentCounts.clear();
+            depth = 0;
+        }
+
+        @Override
+        protected void onToken(JsonToken token, JsonParser parser) throws IOException {
+            switch (token) {
+                case START_OBJECT:
+                case START_ARRAY:
+                    depth++;
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    depth--;
+                    break;
+                case FIELD_NAME:
+                    if (depth < fieldNames.length) {
+                        fieldNames[depth] = parser.getCurrentName();
+                    }
+                    break;
+                case VALUE_NUMBER_INT:
+                    if (depth == COUNT_PATH.length - 1 && isCountPath()) {
+                        documentCounts.put(fieldNames[2], parser.getLongValue());
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        Map<String, Long> getDocumentCounts() {
+            return documentCounts;
+        }
+
+        private boolean isCountPath() {
+            for (int i = 1; i < COUNT_PATH.length; i++) {
+                if (COUNT_PATH[i] != null && !COUNT_PATH[i].equals(fieldNames[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
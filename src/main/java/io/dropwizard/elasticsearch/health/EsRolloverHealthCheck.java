@@ -0,0 +1,65 @@
+package io.dropwizard.elasticsearch.health;
+
+import com.codahale.metrics.health.HealthCheck;
+import io.dropwizard.elasticsearch.managed.ManagedRolloverIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A {@link HealthCheck} which checks if a {@link ManagedRolloverIndex} keeps up with rolling over its write alias.
+ */
+public class EsRolloverHealthCheck extends HealthCheck {
+
+    private final Logger logger = LoggerFactory.getLogger(EsRolloverHealthCheck.class);
+    private final ManagedRolloverIndex rolloverIndex;
+
+    /**
+     * Construct a new Elasticsearch rollover health check.
+     *
+     * @param rolloverIndex the {@link ManagedRolloverIndex} which should be checked
+     */
+    public EsRolloverHealthCheck(ManagedRolloverIndex rolloverIndex) {
+        this.rolloverIndex = checkNotNull(rolloverIndex);
+    }
+
+    /**
+     * Perform a check of the rollover state of the write alias.
+     *
+     * @return if the rollover conditions have been checked recently and no rollover is pending, a healthy
+     * {@link com.codahale.metrics.health.HealthCheck.Result}; otherwise, an unhealthy
+     * {@link com.codahale.metrics.health.HealthCheck.Result} with a descriptive error message
+     * @throws Exception if there is an unhandled error during the health check; this will result in
+     *                   a failed health check
+     */
+    @Override
+    protected Result check() throws Exception {
+        final String writeAlias = rolloverIndex.getWriteAlias();
+        final long lastSuccessfulCheck = rolloverIndex.getLastSuccessfulCheck();
+
+        if (lastSuccessfulCheck == 0L) {
+            return Result.unhealthy("Write alias %s has not been set up", writeAlias);
+        }
+
+        final long sinceLastCheck = System.currentTimeMillis() - lastSuccessfulCheck;
+        if (sinceLastCheck > rolloverIndex.getConfig().getMaxCheckDelay().toMilliseconds()) {
+            logger.warn("Rollover of write alias " + writeAlias + " has not been checked for " + sinceLastCheck + " ms");
+            return Result.unhealthy("Last successful check of %s was %d ms ago: %s",
+                    writeAlias, sinceLastCheck, rolloverIndex.getLastError());
+        }
+
+        if (rolloverIndex.isRolloverPending()) {
+            logger.warn("Rollover of write alias " + writeAlias + " is pending");
+            return Result.unhealthy("Rollover of %s from %s is pending: %s",
+                    writeAlias, rolloverIndex.getCurrentIndex(), rolloverIndex.getLastError());
+        }
+
+        if (rolloverIndex.getNextIndex() == null) {
+            return Result.unhealthy("Next index of %s has not been created: %s", writeAlias, rolloverIndex.getLastError());
+        }
+
+        return Result.healthy("Writing to %s through %s, next index %s",
+                rolloverIndex.getCurrentIndex(), writeAlias, rolloverIndex.getNextIndex());
+    }
+}
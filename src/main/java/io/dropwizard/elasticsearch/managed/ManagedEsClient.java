@@ -1,10 +1,27 @@
 package io.dropwizard.elasticsearch.managed;
 
+import io.dropwizard.elasticsearch.bulk.BulkLoadSession;
+import io.dropwizard.elasticsearch.bulk.BulkRequestWriter;
+import io.dropwizard.elasticsearch.client.EsRestHighLevelClient;
+import io.dropwizard.elasticsearch.client.ResponseBodyHandler;
+import io.dropwizard.elasticsearch.client.StreamingResponseConsumerFactory;
+import io.dropwizard.elasticsearch.config.BulkLoadConfiguration;
+import io.dropwizard.elasticsearch.config.BulkWriterConfiguration;
 import io.dropwizard.elasticsearch.config.EsConfiguration;
+import io.dropwizard.elasticsearch.config.RateLimitConfiguration;
+import io.dropwizard.elasticsearch.config.RequestTracingConfiguration;
+import io.dropwizard.elasticsearch.config.ResponseConsumerConfiguration;
+import io.dropwizard.elasticsearch.ratelimit.RequestThrottler;
+import io.dropwizard.elasticsearch.tracing.RequestTracer;
+import io.dropwizard.elasticsearch.util.ByteBufferPool;
 import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.util.Duration;
 import org.apache.http.HttpHost;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.client.HttpAsyncResponseConsumerFactory;
 import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,8 +30,12 @@ import java.io.IOException;
 import java.security.KeyManagementException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
 /**
  * A Dropwizard managed Elasticsearch {@link RestHighLevelClient} for Elasticsearch 6.
@@ -23,10 +44,21 @@ public class ManagedEsClient implements Managed {
 
     private final Logger logger = LoggerFactory.getLogger(ManagedEsClient.class);
     private RestHighLevelClient client = null;
+    private final RequestTracer requestTracer;
+    private final RequestThrottler requestThrottler;
+    private final BulkLoadConfiguration bulkLoadConfig;
+    private final Set<BulkLoadSession> bulkLoadSessions = ConcurrentHashMap.newKeySet();
+    private final ByteBufferPool bulkBufferPool;
+    private final Duration bulkRequestTimeout;
+    private final int responseBufferLimit;
+    private final ByteBufferPool responseBufferPool;
 
     /**
      * Create a new managed Elasticsearch {@link RestHighLevelClient}.
      * {@link RestHighLevelClient} is being created with {@link EsConfiguration#servers} as node addresses.
+     * Unless disabled in {@link EsConfiguration#requestTracing}, requests are traced by a {@link RequestTracer},
+     * including requests of the {@link EsRestHighLevelClient} which fail before a response is received.
+     * If enabled in {@link EsConfiguration#rateLimits}, requests are throttled by a {@link RequestThrottler}.
      *
      * @param config a valid {@link EsConfiguration} instance
      */
@@ -34,11 +66,29 @@ public class ManagedEsClient implements Managed {
 
         checkNotNull(config, "EsConfiguration must not be null");
 
-        this.client = new RestHighLevelClient(RestClient.builder(
+        final RequestTracingConfiguration tracingConfig = config.getRequestTracing();
+        this.requestTracer = new RequestTracer(tracingConfig);
+        final RateLimitConfiguration rateLimitConfig = config.getRateLimits();
+        this.requestThrottler = new RequestThrottler(rateLimitConfig);
+        this.bulkLoadConfig = config.getBulkLoad();
+        this.bulkBufferPool = createBufferPool(config.getBulkWriter());
+        this.bulkRequestTimeout = config.getBulkWriter().getRequestTimeout();
+        this.responseBufferLimit = (int) config.getResponses().getBufferLimit().toBytes();
+        this.responseBufferPool = createBufferPool(config.getResponses());
+
+        RestClientBuilder builder = RestClient.builder(
                 config.getServers().stream()
                         .map(s -> HttpHost.create(s))
-                        .toArray(HttpHost[]::new))
-        );
+                        .toArray(HttpHost[]::new));
+
+        final RequestTracer clientTracer = tracingConfig.isEnabled() ? requestTracer : null;
+        if (tracingConfig.isEnabled() || rateLimitConfig.isEnabled()) {
+            builder.setHttpClientConfigCallback(
+                    httpClientBuilder -> configureHttpClient(httpClientBuilder, clientTracer, rateLimitConfig));
+        }
+
+        this.client = new EsRestHighLevelClient(builder, clientTracer,
+                rateLimitConfig.isEnabled() ? requestThrottler : null, getResponseConsumerFactory());
     }
 
 
@@ -49,6 +99,18 @@ public class ManagedEsClient implements Managed {
      */
     public ManagedEsClient(RestHighLevelClient client) {
         this.client = checkNotNull(client, "Elasticsearch client must not be null");
+        this.requestTracer = new RequestTracer(new RequestTracingConfiguration());
+        this.requestThrottler = client instanceof EsRestHighLevelClient
+                && ((EsRestHighLevelClient) client).getRequestThrottler() != null
+                ? ((EsRestHighLevelClient) client).getRequestThrottler()
+                : new RequestThrottler(new RateLimitConfiguration());
+        this.bulkLoadConfig = new BulkLoadConfiguration();
+        final BulkWriterConfiguration bulkWriterConfig = new BulkWriterConfiguration();
+        this.bulkBufferPool = createBufferPool(bulkWriterConfig);
+        this.bulkRequestTimeout = bulkWriterConfig.getRequestTimeout();
+        final ResponseConsumerConfiguration responsesConfig = new ResponseConsumerConfiguration();
+        this.responseBufferLimit = (int) responsesConfig.getBufferLimit().toBytes();
+        this.responseBufferPool = createBufferPool(responsesConfig);
     }
 
     @Override
@@ -57,7 +119,7 @@ public class ManagedEsClient implements Managed {
     }
 
     /**
-     * Stops the Elasticsearch {@link RestHighLevelClient}.
+     * Stops the Elasticsearch {@link RestHighLevelClient}, after aborting all bulk load sessions which are still open.
      * Called <i>after</i> the service is no longer accepting requests.
      *
      * @throws Exception if something goes wrong.
@@ -65,6 +127,8 @@ public class ManagedEsClient implements Managed {
     @Override
     public void stop() throws Exception {
         logger.info("Stopping Elasticsearch client...");
+        closeBulkLoadSessions();
+        requestThrottler.close();
         closeClient();
     }
 
@@ -77,6 +141,142 @@ public class ManagedEsClient implements Managed {
         return client;
     }
 
+    /**
+     * Get the {@link RequestTracer} of the managed Elasticsearch client. If the client wasn't created from an
+     * {@link EsConfiguration}, the tracer isn't attached to it and won't record any requests.
+     *
+     * @return the {@link RequestTracer} of the managed client
+     */
+    public RequestTracer getRequestTracer() {
+        return requestTracer;
+    }
+
+    /**
+     * Get the {@link RequestThrottler} of the managed Elasticsearch client. It is only applied to the requests of
+     * {@link #getClient()} if enabled in {@link EsConfiguration#rateLimits}; low-level requests can acquire a
+     * {@link io.dropwizard.elasticsearch.ratelimit.ThrottlePermit} from it themselves. It is closed when the client
+     * is stopped, failing all requests which are still waiting.
+     *
+     * @return the {@link RequestThrottler} of the managed client
+     */
+    public RequestThrottler getRequestThrottler() {
+        return requestThrottler;
+    }
+
+    /**
+     * Open a {@link BulkLoadSession} for the given indices, using the {@link EsConfiguration#bulkLoad} settings.
+     * Sessions which are still open when the client is stopped are aborted, restoring the original index settings.
+     * An index can only be covered by one open session at a time, as a second session would take the bulk load
+     * settings for the original ones. Sessions whose settings could not be restored stay open until a retry succeeds.
+     *
+     * @param indices the indices which should be tuned for ingest speed
+     * @return an open {@link BulkLoadSession}
+     * @throws IOException           if the index settings could not be changed
+     * @throws IllegalStateException if one of the indices is already covered by an open session
+     */
+    public synchronized BulkLoadSession openBulkLoadSession(String... indices) throws IOException {
+        bulkLoadSessions.removeIf(session -> !session.isOpen());
+        for (BulkLoadSession open : bulkLoadSessions) {
+            for (String index : indices) {
+                checkState(!open.getIndices().contains(index),
+                        "Index %s is already covered by an open bulk load session", index);
+            }
+        }
+
+        final BulkLoadSession session = new BulkLoadSession(client, bulkLoadConfig, Arrays.asList(indices));
+        session.open();
+        bulkLoadSessions.add(session);
+        return session;
+    }
+
+    /**
+     * Create a new {@link BulkRequestWriter} which writes into the buffer pool of this client, configured by
+     * {@link EsConfiguration#bulkWriter}. Requests are sent through the low-level client:
+     * {@code writer.execute(managedClient.getClient().getLowLevelClient())}. If the requests of the client are
+     * throttled, the requests of the writer are throttled as well, with the default tag.
+     *
+     * @return a new {@link BulkRequestWriter}
+     */
+    public BulkRequestWriter newBulkRequestWriter() {
+        return newBulkRequestWriter(null);
+    }
+
+    /**
+     * Create a new {@link BulkRequestWriter} like {@link #newBulkRequestWriter()}, whose requests are throttled with the
+     * given caller tag if the requests of the client are throttled.
+     *
+     * @param callerTag the caller tag of the requests, e.g. {@code batch}
+     * @return a new {@link BulkRequestWriter}
+     */
+    public BulkRequestWriter newBulkRequestWriter(String callerTag) {
+        final RequestThrottler throttler = client instanceof EsRestHighLevelClient
+                ? ((EsRestHighLevelClient) client).getRequestThrottler()
+                : null;
+        return new BulkRequestWriter(bulkBufferPool, bulkRequestTimeout, throttler, callerTag);
+    }
+
+    /**
+     * Get a response consumer factory which buffers responses on the heap up to
+     * {@link EsConfiguration#responses}{@code .bufferLimit}. It is used by all requests of the client created from an
+     * {@link EsConfiguration}, and can be passed to low-level requests, e.g.
+     * {@code getClient().getLowLevelClient().performRequest("GET", "/_stats", params, null, getResponseConsumerFactory())}.
+     *
+     * @return a heap buffering {@link HttpAsyncResponseConsumerFactory} with the configured limit
+     */
+    public HttpAsyncResponseConsumerFactory getResponseConsumerFactory() {
+        return new HttpAsyncResponseConsumerFactory.HeapBufferedResponseConsumerFactory(responseBufferLimit);
+    }
+
+    /**
+     * Create a response consumer factory for a single low-level request which streams the response body to the
+     * given handler through pooled buffers, so that the memory needed per request doesn't grow with the response.
+     *
+     * @param handler the {@link ResponseBodyHandler} the response body is handed to
+     * @return a new {@link StreamingResponseConsumerFactory}
+     * @see io.dropwizard.elasticsearch.client.JsonTokenHandler
+     */
+    public StreamingResponseConsumerFactory newStreamingConsumerFactory(ResponseBodyHandler handler) {
+        return new StreamingResponseConsumerFactory(responseBufferPool, responseBufferLimit, handler);
+    }
+
+    /**
+     * Installs the {@link RequestTracer}, if any, and sizes the connection pool to the number of requests the
+     * {@link RequestThrottler} lets through at the same time if rate limits are enabled, so that permitted requests
+     * never queue for a connection.
+     */
+    static HttpAsyncClientBuilder configureHttpClient(HttpAsyncClientBuilder httpClientBuilder,
+                                                      RequestTracer requestTracer,
+                                                      RateLimitConfiguration rateLimitConfig) {
+        if (requestTracer != null) {
+            requestTracer.install(httpClientBuilder);
+        }
+        if (rateLimitConfig.isEnabled()) {
+            httpClientBuilder.setMaxConnTotal(rateLimitConfig.getMaxConcurrentRequests());
+            httpClientBuilder.setMaxConnPerRoute(rateLimitConfig.getMaxConcurrentRequests());
+        }
+        return httpClientBuilder;
+    }
+
+    private static ByteBufferPool createBufferPool(BulkWriterConfiguration config) {
+        return new ByteBufferPool((int) config.getBufferSize().toBytes(), config.getMaxPooledBuffers());
+    }
+
+    private static ByteBufferPool createBufferPool(ResponseConsumerConfiguration config) {
+        return new ByteBufferPool((int) config.getStreamingBufferSize().toBytes(),
+                config.getMaxPooledStreamingBuffers(), false);
+    }
+
+    private void closeBulkLoadSessions() {
+        for (BulkLoadSession session : bulkLoadSessions) {
+            try {
+                session.abort();
+            } catch (Exception e) {
+                logger.error("Could not restore settings of bulk load session for " + session.getIndices(), e);
+            }
+        }
+        bulkLoadSessions.removeIf(session -> !session.isOpen());
+    }
+
     private void closeClient() throws IOException {
         if (null != client) {
             logger.info("Closing client " + client.toString());
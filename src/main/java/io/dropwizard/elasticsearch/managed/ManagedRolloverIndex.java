@@ -0,0 +1,431 @@
+package io.dropwizard.elasticsearch.managed;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.elasticsearch.config.RolloverConfiguration;
+import io.dropwizard.lifecycle.Managed;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NStringEntity;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A Dropwizard managed time-series write alias for Elasticsearch 6.
+ * <p>
+ * Documents are written through {@link #getWriteAlias()}, which always points to exactly one index named
+ * {@code <writeAlias>-000001}, {@code <writeAlias>-000002} and so on. The size, document count and age of the current
+ * index are checked periodically and once one of the configured conditions is met, the alias is moved to the next
+ * index. The next index is always created ahead of time, so that switching the alias doesn't have to wait for the
+ * creation of a new index.
+ * <p>
+ * Elasticsearch 6.0 doesn't allow rolling over to an existing index, so the switch is performed as an atomic
+ * {@code _aliases} update instead of a {@code _rollover} request.
+ * <p>
+ * As indices are created ahead of time, their creation date doesn't tell when they became the write index. That time
+ * is stored in an additional alias {@code <writeAlias>-since-<epoch millis>} which is added to the index in the same
+ * {@code _aliases} update, so that the age of the current index survives restarts.
+ * <p>
+ * Several instances of a service may manage the same write alias. Every check starts by resolving the write alias and
+ * its since-alias again, so that all instances follow a move made by one of them. A move which fails because another
+ * instance has just moved the alias counts as a rollover, and indices which another instance has already created are
+ * used as they are.
+ *
+ * @see <a href="https://www.elastic.co/guide/en/elasticsearch/reference/6.0/indices-rollover-index.html">Rollover Index</a>
+ * @see io.dropwizard.elasticsearch.health.EsRolloverHealthCheck
+ */
+public class ManagedRolloverIndex implements Managed {
+
+    private static final Pattern INDEX_NUMBER = Pattern.compile("^(.*)-(\\d+)$");
+    private static final String ALIASES_ENDPOINT = "/_aliases";
+    private static final String SINCE_ALIAS_INFIX = "-since-";
+    private static final String ALREADY_EXISTS = "resource_already_exists_exception";
+
+    private final Logger logger = LoggerFactory.getLogger(ManagedRolloverIndex.class);
+    private final RestClient client;
+    private final RolloverConfiguration config;
+    private ScheduledExecutorService executor = null;
+
+    private volatile String currentIndex = null;
+    private volatile long currentIndexSince = 0L;
+    private volatile String nextIndex = null;
+    private volatile long lastSuccessfulCheck = 0L;
+    private volatile boolean rolloverPending = false;
+    private volatile String lastError = null;
+
+    /**
+     * Create a new managed write alias.
+     *
+     * @param client an Elasticsearch {@link RestHighLevelClient} instance connected to the cluster
+     * @param config a valid {@link RolloverConfiguration} instance
+     */
+    public ManagedRolloverIndex(RestHighLevelClient client, RolloverConfiguration config) {
+        this.client = checkNotNull(client, "Elasticsearch client must not be null").getLowLevelClient();
+        this.config = checkNotNull(config, "RolloverConfiguration must not be null");
+    }
+
+    /**
+     * Resolves (or creates) the current write index, pre-creates the next index and schedules the periodic checks.
+     *
+     * @throws Exception if the write alias could not be set up
+     */
+    @Override
+    public void start() throws Exception {
+        logger.info("Starting rollover of write alias " + config.getWriteAlias() + "...");
+        initialize();
+
+        final long interval = config.getCheckInterval().toMilliseconds();
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("es-rollover-%d")
+                .setDaemon(true)
+                .build());
+        executor.scheduleWithFixedDelay(this::checkSafely, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic checks.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    @Override
+    public void stop() throws Exception {
+        logger.info("Stopping rollover of write alias " + config.getWriteAlias() + "...");
+        if (null != executor) {
+            executor.shutdown();
+            executor.awaitTermination(config.getCheckInterval().toMilliseconds(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Resolve the current write index again, check its rollover conditions and move the write alias to the next index
+     * if one of them is met.
+     *
+     * @return {@literal true} if the write alias has been moved to a new index, by this or by another instance while
+     * it was due, {@literal false} otherwise
+     * @throws IOException if the index statistics could not be retrieved or the alias could not be moved
+     */
+    public synchronized boolean checkAndRollover() throws IOException {
+        resolveCurrentIndex();
+
+        final Map<String, Object> stats = performRequest("GET", "/" + currentIndex + "/_stats/docs,store", null);
+        final long docs = XContentMapValues.nodeLongValue(
+                XContentMapValues.extractValue("_all.primaries.docs.count", stats), 0L);
+        final long sizeInBytes = XContentMapValues.nodeLongValue(
+                XContentMapValues.extractValue("_all.primaries.store.size_in_bytes", stats), 0L);
+        final long age = System.currentTimeMillis() - currentIndexSince;
+
+        final boolean due = (config.getMaxDocs() != null && docs >= config.getMaxDocs())
+                || (config.getMaxSize() != null && sizeInBytes >= config.getMaxSize().toBytes())
+                || (config.getMaxAge() != null && age >= config.getMaxAge().toMilliseconds());
+
+        rolloverPending = due;
+        if (due) {
+            logger.info(String.format("Rolling over %s: %d docs, %d bytes, %d ms old", currentIndex, docs, sizeInBytes, age));
+            rollover();
+        } else if (nextIndex == null) {
+            precreateNextIndex();
+        }
+
+        rolloverPending = false;
+        lastSuccessfulCheck = System.currentTimeMillis();
+        lastError = null;
+        return due;
+    }
+
+    public String getWriteAlias() {
+        return config.getWriteAlias();
+    }
+
+    public String getCurrentIndex() {
+        return currentIndex;
+    }
+
+    /**
+     * Get the time the current index became the write index.
+     *
+     * @return the time in milliseconds since the epoch
+     */
+    public long getCurrentIndexSince() {
+        return currentIndexSince;
+    }
+
+    public String getNextIndex() {
+        return nextIndex;
+    }
+
+    public long getLastSuccessfulCheck() {
+        return lastSuccessfulCheck;
+    }
+
+    public boolean isRolloverPending() {
+        return rolloverPending;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public RolloverConfiguration getConfig() {
+        return config;
+    }
+
+    @VisibleForTesting
+    static String nextIndexName(String index) {
+        final Matcher matcher = INDEX_NUMBER.matcher(index);
+        if (!matcher.matches()) {
+            throw new IllegalStateException("Index name must end with a dash and a number: " + index);
+        }
+
+        final String number = matcher.group(2);
+        final String next = String.valueOf(Long.parseLong(number) + 1L);
+        final StringBuilder name = new StringBuilder(matcher.group(1)).append('-');
+        for (int i = next.length(); i < number.length(); i++) {
+            name.append('0');
+        }
+        return name.append(next).toString();
+    }
+
+    synchronized void initialize() throws IOException {
+        resolveCurrentIndex();
+        logger.info("Writing to " + currentIndex + " through alias " + config.getWriteAlias());
+        precreateNextIndex();
+        lastSuccessfulCheck = System.currentTimeMillis();
+    }
+
+    /**
+     * Resolves the index the write alias points to and since when, creating the first index if the alias is missing.
+     * If another instance has moved the alias, the pre-created next index is forgotten.
+     */
+    private void resolveCurrentIndex() throws IOException {
+        String index = writeIndex();
+        if (index == null) {
+            final String first = config.getWriteAlias() + "-000001";
+            final long since = System.currentTimeMillis();
+            if (createIndex(first, since)) {
+                currentIndex = first;
+                currentIndexSince = since;
+                nextIndex = null;
+                return;
+            }
+
+            index = writeIndex();
+            if (index == null) {
+                throw new IllegalStateException("Index " + first + " already exists, but write alias "
+                        + config.getWriteAlias() + " doesn't point to it");
+            }
+        }
+
+        if (!index.equals(currentIndex)) {
+            if (currentIndex != null) {
+                logger.info("Write alias " + config.getWriteAlias() + " has been moved from " + currentIndex + " to "
+                        + index + " by another instance");
+            }
+            currentIndex = index;
+            nextIndex = null;
+        }
+        currentIndexSince = writeIndexSince(index);
+    }
+
+    /**
+     * Gets the index the write alias points to.
+     *
+     * @return the name of the index, or {@literal null} if the write alias doesn't exist
+     */
+    private String writeIndex() throws IOException {
+        final String writeAlias = config.getWriteAlias();
+        final Response response = client.performRequest("GET", "/_alias/" + writeAlias,
+                Collections.singletonMap("ignore", "404"));
+        if (response.getStatusLine().getStatusCode() == 404) {
+            return null;
+        }
+
+        final Map<String, Object> aliases = parse(response);
+        if (aliases.size() > 1) {
+            throw new IllegalStateException("Write alias " + writeAlias + " points to more than one index: " + aliases.keySet());
+        }
+        return aliases.isEmpty() ? null : aliases.keySet().iterator().next();
+    }
+
+    private void checkSafely() {
+        try {
+            checkAndRollover();
+        } catch (Exception e) {
+            lastError = e.getMessage();
+            logger.error("Could not check rollover of write alias " + config.getWriteAlias(), e);
+        }
+    }
+
+    private void rollover() throws IOException {
+        if (nextIndex == null) {
+            precreateNextIndex();
+        }
+
+        final long since = System.currentTimeMillis();
+        final XContentBuilder body = XContentFactory.jsonBuilder()
+                .startObject()
+                .startArray("actions")
+                .startObject().startObject("remove")
+                .field("index", currentIndex).field("alias", config.getWriteAlias())
+                .endObject().endObject()
+                .startObject().startObject("add")
+                .field("index", nextIndex).field("alias", config.getWriteAlias())
+                .endObject().endObject()
+                .startObject().startObject("add")
+                .field("index", nextIndex).field("alias", sinceAlias(since))
+                .endObject().endObject()
+                .endArray()
+                .endObject();
+        try {
+            client.performRequest("POST", ALIASES_ENDPOINT, Collections.emptyMap(), jsonEntity(body));
+        } catch (ResponseException e) {
+            final String previousIndex = currentIndex;
+            resolveCurrentIndex();
+            if (previousIndex.equals(currentIndex)) {
+                throw e;
+            }
+            if (nextIndex == null) {
+                precreateNextIndex();
+            }
+            return;
+        }
+
+        logger.info("Moved write alias " + config.getWriteAlias() + " from " + currentIndex + " to " + nextIndex);
+        currentIndex = nextIndex;
+        currentIndexSince = since;
+        nextIndex = null;
+
+        precreateNextIndex();
+    }
+
+    private void precreateNextIndex() throws IOException {
+        final String index = nextIndexName(currentIndex);
+        final Response response = client.performRequest("HEAD", "/" + index);
+        if (response.getStatusLine().getStatusCode() != 200) {
+            createIndex(index, null);
+        }
+        nextIndex = index;
+    }
+
+    /**
+     * Creates an index, as the write index if {@code writeIndexSince} is given. Only the primaries are waited for, so
+     * that creating an index doesn't block on replicas which can't be allocated, e.g. on a single node.
+     *
+     * @return {@literal true} if the index has been created, {@literal false} if it already existed, e.g. because
+     * another instance has created it
+     */
+    private boolean createIndex(String index, Long writeIndexSince) throws IOException {
+        final XContentBuilder body = XContentFactory.jsonBuilder().startObject();
+
+        body.startObject("settings");
+        for (Map.Entry<String, String> setting : config.getIndexSettings().entrySet()) {
+            body.field(setting.getKey(), setting.getValue());
+        }
+        body.endObject();
+
+        body.startObject("aliases");
+        if (writeIndexSince != null) {
+            body.startObject(config.getWriteAlias()).endObject();
+            body.startObject(sinceAlias(writeIndexSince)).endObject();
+        }
+        if (config.getReadAlias() != null) {
+            body.startObject(config.getReadAlias()).endObject();
+        }
+        body.endObject();
+
+        body.endObject();
+
+        logger.info("Creating index " + index);
+        try {
+            client.performRequest("PUT", "/" + index, Collections.emptyMap(), jsonEntity(body));
+            return true;
+        } catch (ResponseException e) {
+            final HttpEntity entity = e.getResponse().getEntity();
+            if (e.getResponse().getStatusLine().getStatusCode() == 400 && entity != null
+                    && EntityUtils.toString(entity).contains(ALREADY_EXISTS)) {
+                logger.info("Index " + index + " already exists");
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the time the given index became the write index from its {@code <writeAlias>-since-<epoch millis>} alias.
+     * If the alias is missing, the age is measured from now on and the alias is added.
+     */
+    private long writeIndexSince(String index) throws IOException {
+        final Map<String, Object> response = performRequest("GET", "/" + index + "/_alias", null);
+        final Object indexAliases = response.get(index) instanceof Map ? ((Map<?, ?>) response.get(index)).get("aliases") : null;
+
+        final String prefix = config.getWriteAlias() + SINCE_ALIAS_INFIX;
+        long since = -1L;
+        if (indexAliases instanceof Map) {
+            for (Object alias : ((Map<?, ?>) indexAliases).keySet()) {
+                final String name = String.valueOf(alias);
+                if (name.startsWith(prefix)) {
+                    try {
+                        since = Math.max(since, Long.parseLong(name.substring(prefix.length())));
+                    } catch (NumberFormatException e) {
+                        logger.warn("Ignoring invalid alias " + name + " of " + index);
+                    }
+                }
+            }
+        }
+
+        if (since < 0L) {
+            since = System.currentTimeMillis();
+            logger.warn("Unknown since when " + index + " is the write index, measuring its age from now on");
+            final XContentBuilder body = XContentFactory.jsonBuilder()
+                    .startObject()
+                    .startArray("actions")
+                    .startObject().startObject("add")
+                    .field("index", index).field("alias", sinceAlias(since))
+                    .endObject().endObject()
+                    .endArray()
+                    .endObject();
+            client.performRequest("POST", ALIASES_ENDPOINT, Collections.emptyMap(), jsonEntity(body));
+        }
+        return since;
+    }
+
+    private String sinceAlias(long since) {
+        return config.getWriteAlias() + SINCE_ALIAS_INFIX + since;
+    }
+
+    private Map<String, Object> performRequest(String method, String endpoint, Map<String, String> params) throws IOException {
+        return parse(client.performRequest(method, endpoint,
+                params == null ? Collections.<String, String>emptyMap() : params));
+    }
+
+    private static Map<String, Object> parse(Response response) throws IOException {
+        try (InputStream is = response.getEntity().getContent()) {
+            return XContentHelper.convertToMap(XContentType.JSON.xContent(), is, true);
+        }
+    }
+
+    private static HttpEntity jsonEntity(XContentBuilder builder) throws IOException {
+        return new NStringEntity(builder.string(), ContentType.APPLICATION_JSON);
+    }
+}
@@ -0,0 +1,28 @@
+package io.dropwizard.elasticsearch.ratelimit;
+
+/**
+ * The families of Elasticsearch endpoints which can be rate limited separately.
+ */
+public enum EndpointFamily {
+    /**
+     * Search and scroll requests.
+     */
+    SEARCH,
+    /**
+     * Single document reads ({@code get}, {@code exists}).
+     */
+    GET,
+    /**
+     * Single document writes ({@code index}, {@code update}, {@code delete}).
+     */
+    WRITE,
+    /**
+     * Bulk requests.
+     */
+    BULK,
+    /**
+     * Cluster level requests ({@code ping}, {@code info}) and other requests to endpoints starting with an
+     * underscore.
+     */
+    ADMIN
+}
@@ -0,0 +1,191 @@
+package io.dropwizard.elasticsearch.ratelimit;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A counting semaphore which hands released permits to the waiter with the highest priority, and to the longest
+ * waiting one among those with the same priority.
+ * <p>
+ * Waiters are either threads blocked in {@link #tryAcquire(int, long)} or callbacks registered with
+ * {@link #acquireAsync(int, Runnable)}, which are run by the thread releasing the permit.
+ */
+class PrioritySemaphore {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+    private int available;
+    private long sequence = 0L;
+
+    PrioritySemaphore(int permits) {
+        checkArgument(permits > 0, "Number of permits must be positive");
+        this.available = permits;
+    }
+
+    /**
+     * Acquire a permit, waiting up to the given time if none is available.
+     *
+     * @param priority     the priority of the caller, higher values are served first
+     * @param timeoutNanos the maximum time to wait, in nanoseconds
+     * @return {@literal true} if a permit was acquired, {@literal false} if the waiting time elapsed
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    boolean tryAcquire(int priority, long timeoutNanos) throws InterruptedException {
+        Waiter granted = null;
+        lock.lockInterruptibly();
+        try {
+            if (available > 0 && waiters.isEmpty()) {
+                available--;
+                return true;
+            }
+
+            final Waiter waiter = new Waiter(priority, sequence++, lock.newCondition(), null);
+            waiters.add(waiter);
+            long remaining = timeoutNanos;
+            try {
+                while (!waiter.granted) {
+                    if (remaining <= 0L) {
+                        waiters.remove(waiter);
+                        return false;
+                    }
+                    remaining = waiter.condition.awaitNanos(remaining);
+                }
+                return true;
+            } catch (InterruptedException e) {
+                if (waiter.granted) {
+                    granted = releaseLocked();
+                } else {
+                    waiters.remove(waiter);
+                }
+                throw e;
+            }
+        } finally {
+            lock.unlock();
+            runCallback(granted);
+        }
+    }
+
+    /**
+     * Acquire a permit without blocking.
+     *
+     * @param priority  the priority of the caller, higher values are served first
+     * @param onGranted run by the releasing thread once a permit has been handed to the caller, if none was available
+     * @return {@literal null} if a permit was acquired right away, otherwise the waiter which can be passed to
+     * {@link #cancel(Waiter)}
+     */
+    Waiter acquireAsync(int priority, Runnable onGranted) {
+        lock.lock();
+        try {
+            if (available > 0 && waiters.isEmpty()) {
+                available--;
+                return null;
+            }
+
+            final Waiter waiter = new Waiter(priority, sequence++, null, onGranted);
+            waiters.add(waiter);
+            return waiter;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop waiting for a permit requested with {@link #acquireAsync(int, Runnable)}.
+     *
+     * @param waiter the waiter to remove
+     * @return {@literal true} if the waiter was removed, {@literal false} if it has already been granted a permit
+     */
+    boolean cancel(Waiter waiter) {
+        lock.lock();
+        try {
+            return !waiter.granted && waiters.remove(waiter);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Release a permit, handing it to the waiter with the highest priority.
+     */
+    void release() {
+        final Waiter granted;
+        lock.lock();
+        try {
+            granted = releaseLocked();
+        } finally {
+            lock.unlock();
+        }
+        runCallback(granted);
+    }
+
+    int availablePermits() {
+        lock.lock();
+        try {
+            return available;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int queueLength() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hands the permit to the next waiter.
+     *
+     * @return the granted waiter if its callback has to be run once the lock is released, {@literal null} otherwise
+     */
+    private Waiter releaseLocked() {
+        final Waiter next = waiters.poll();
+        if (next == null) {
+            available++;
+            return null;
+        }
+
+        next.granted = true;
+        if (next.condition != null) {
+            next.condition.signal();
+            return null;
+        }
+        return next;
+    }
+
+    private static void runCallback(Waiter granted) {
+        if (granted != null) {
+            granted.onGranted.run();
+        }
+    }
+
+    static class Waiter implements Comparable<Waiter> {
+
+        private final int priority;
+        private final long sequence;
+        private final Condition condition;
+        private final Runnable onGranted;
+        private boolean granted = false;
+
+        private Waiter(int priority, long sequence, Condition condition, Runnable onGranted) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.condition = condition;
+            this.onGranted = onGranted;
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            if (priority != other.priority) {
+                return Integer.compare(other.priority, priority);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package io.dropwizard.elasticsearch.ratelimit;
+
+import java.io.IOException;
+
+/**
+ * Thrown if a request couldn't acquire its rate limit and concurrency quotas within the configured maximum waiting
+ * time.
+ */
+public class RequestThrottledException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String tag;
+    private final EndpointFamily endpointFamily;
+
+    public RequestThrottledException(String tag, EndpointFamily endpointFamily, String message) {
+        super(message);
+        this.tag = tag;
+        this.endpointFamily = endpointFamily;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public EndpointFamily getEndpointFamily() {
+        return endpointFamily;
+    }
+}
@@ -0,0 +1,506 @@
+package io.dropwizard.elasticsearch.ratelimit;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.elasticsearch.config.QuotaConfiguration;
+import io.dropwizard.elasticsearch.config.RateLimitConfiguration;
+
+import java.io.Closeable;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Applies client-side rate limits and concurrency quotas to the requests of a caller tag (e.g. {@code interactive},
+ * {@code batch} or {@code export}) and {@link EndpointFamily}.
+ * <p>
+ * A request first waits for the token buckets and concurrency quotas configured for its tag and endpoint family,
+ * then for one of the shared connection slots. Waiting requests get the free connection slots in order of the
+ * priority of their tag, so that high priority traffic overtakes low priority traffic while the connection pool is
+ * contended. Tags which are neither configured with a priority nor with a quota are treated as the default tag.
+ * <p>
+ * Synchronous requests wait on the calling thread with {@link #acquire(String, EndpointFamily)}. Asynchronous requests
+ * use {@link #acquireAsync(String, EndpointFamily)}, which never blocks: waiting for tokens and the maximum waiting
+ * time are timed by a scheduler thread, and queued requests are resumed by the thread which releases a slot.
+ * <p>
+ * The throttled time per tag is recorded in the {@link MetricRegistry} returned by {@link #getMetrics()}, which can
+ * be registered with the metrics of the application, e.g.
+ * {@code environment.metrics().register("elasticsearch.throttling", throttler.getMetrics())}.
+ */
+public class RequestThrottler implements Closeable {
+
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final PrioritySemaphore connections;
+    private final String defaultTag;
+    private final long maxWaitNanos;
+    private final Map<String, Integer> priorities;
+    private final Set<String> knownTags;
+    private final List<Quota> quotas;
+    private final Set<AsyncAcquisition> waiting = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService scheduler = null;
+    private boolean closed = false;
+
+    /**
+     * Create a new request throttler.
+     *
+     * @param config a valid {@link RateLimitConfiguration} instance
+     */
+    public RequestThrottler(RateLimitConfiguration config) {
+        checkNotNull(config, "RateLimitConfiguration must not be null");
+
+        this.connections = new PrioritySemaphore(config.getMaxConcurrentRequests());
+        this.defaultTag = config.getDefaultTag();
+        this.maxWaitNanos = config.getMaxWait().toNanoseconds();
+        this.priorities = ImmutableMap.copyOf(config.getPriorities());
+
+        final ImmutableList.Builder<Quota> quotas = ImmutableList.builder();
+        final Set<String> knownTags = new HashSet<>(priorities.keySet());
+        knownTags.add(defaultTag);
+        for (QuotaConfiguration quota : config.getQuotas()) {
+            quotas.add(new Quota(quota));
+            knownTags.add(quota.getTag());
+        }
+        this.quotas = quotas.build();
+        this.knownTags = knownTags;
+
+        metrics.register("connections.available", (Gauge<Integer>) connections::availablePermits);
+        metrics.register("connections.waiting", (Gauge<Integer>) connections::queueLength);
+    }
+
+    /**
+     * Wait until a request may be sent, for at most {@link RateLimitConfiguration#getMaxWait()}.
+     *
+     * @param tag            the caller tag of the request, or {@literal null} for the default tag
+     * @param endpointFamily the {@link EndpointFamily} of the request
+     * @return a {@link ThrottlePermit} which must be closed once the request has completed
+     * @throws RequestThrottledException if the request couldn't be sent within the maximum waiting time
+     * @throws InterruptedIOException    if the current thread was interrupted while waiting
+     */
+    public ThrottlePermit acquire(String tag, EndpointFamily endpointFamily) throws RequestThrottledException,
+            InterruptedIOException {
+        checkNotNull(endpointFamily, "Endpoint family must not be null");
+
+        final String callerTag = resolveTag(tag);
+        final long start = System.nanoTime();
+        final long deadline = start + maxWaitNanos;
+
+        final List<Quota> matching = matchingQuotas(callerTag, endpointFamily);
+        final int priority = getPriority(callerTag);
+
+        final List<PrioritySemaphore> held = new ArrayList<>(matching.size());
+        boolean acquired = false;
+        try {
+            waitForTokens(callerTag, endpointFamily, matching, deadline);
+
+            for (Quota quota : matching) {
+                if (quota.concurrency != null) {
+                    if (!quota.concurrency.tryAcquire(priority, remaining(deadline))) {
+                        throw rejected(callerTag, endpointFamily, "concurrency quota");
+                    }
+                    held.add(quota.concurrency);
+                }
+            }
+
+            if (!connections.tryAcquire(priority, remaining(deadline))) {
+                throw rejected(callerTag, endpointFamily, "connection slot");
+            }
+            acquired = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a connection slot for " + callerTag);
+        } finally {
+            if (!acquired) {
+                for (PrioritySemaphore semaphore : held) {
+                    semaphore.release();
+                }
+            }
+        }
+
+        return granted(callerTag, held, start);
+    }
+
+    /**
+     * Request permission to send a request without blocking the calling thread. The returned future is completed once
+     * the request may be sent, or completed exceptionally with a {@link RequestThrottledException} if that isn't the
+     * case within {@link RateLimitConfiguration#getMaxWait()}.
+     * <p>
+     * The future may be completed by the calling thread, by the scheduler thread of this throttler or by the thread
+     * which releases a connection slot or concurrency quota, so dependent actions must not block.
+     *
+     * @param tag            the caller tag of the request, or {@literal null} for the default tag
+     * @param endpointFamily the {@link EndpointFamily} of the request
+     * @return a future {@link ThrottlePermit}, which must be closed once the request has completed
+     */
+    public CompletableFuture<ThrottlePermit> acquireAsync(String tag, EndpointFamily endpointFamily) {
+        checkNotNull(endpointFamily, "Endpoint family must not be null");
+
+        final String callerTag = resolveTag(tag);
+        final AsyncAcquisition acquisition = new AsyncAcquisition(callerTag, endpointFamily,
+                matchingQuotas(callerTag, endpointFamily));
+        acquisition.start();
+        return acquisition.result;
+    }
+
+    /**
+     * Stops the scheduler thread of this throttler. Asynchronous requests which are still waiting are rejected.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+            }
+        }
+        for (AsyncAcquisition acquisition : waiting) {
+            acquisition.expire();
+        }
+    }
+
+    /**
+     * Get the throttling metrics: a {@code tags.<tag>.throttled} timer with the time each request of a tag was held
+     * back, a {@code tags.<tag>.rejected} meter of the requests which gave up waiting, and gauges of the available
+     * and contended connection slots.
+     *
+     * @return the {@link MetricRegistry} of this throttler
+     */
+    public MetricRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Get the priority of a caller tag.
+     *
+     * @param tag the caller tag
+     * @return the configured priority of the tag, {@literal 0} if none is configured
+     */
+    public int getPriority(String tag) {
+        return priorities.getOrDefault(resolveTag(tag), 0);
+    }
+
+    private String resolveTag(String tag) {
+        return tag != null && knownTags.contains(tag) ? tag : defaultTag;
+    }
+
+    private List<Quota> matchingQuotas(String tag, EndpointFamily endpointFamily) {
+        final List<Quota> matching = new ArrayList<>();
+        for (Quota quota : quotas) {
+            if (quota.matches(tag, endpointFamily)) {
+                matching.add(quota);
+            }
+        }
+        return matching;
+    }
+
+    private ThrottlePermit granted(String tag, List<PrioritySemaphore> held, long start) {
+        final long throttledNanos = System.nanoTime() - start;
+        metrics.timer(MetricRegistry.name("tags", tag, "throttled")).update(throttledNanos, TimeUnit.NANOSECONDS);
+        return new ThrottlePermit(connections, held, throttledNanos);
+    }
+
+    private synchronized ScheduledExecutorService scheduler() {
+        if (closed) {
+            throw new RejectedExecutionException("Request throttler has been closed");
+        } else if (scheduler == null) {
+            final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+                    .setNameFormat("es-throttler-%d")
+                    .setDaemon(true)
+                    .build());
+            executor.setRemoveOnCancelPolicy(true);
+            scheduler = executor;
+        }
+        return scheduler;
+    }
+
+    /**
+     * Takes a token from every matching bucket and sleeps until the last of them is available. Tokens are returned if
+     * the request couldn't be sent in time anyway.
+     */
+    private void waitForTokens(String tag, EndpointFamily endpointFamily, List<Quota> matching, long deadline)
+            throws RequestThrottledException, InterruptedException {
+        final List<TokenBucket> reserved = new ArrayList<>(matching.size());
+        final long waitNanos = reserveTokens(tag, endpointFamily, matching, reserved, deadline);
+
+        final long wakeUp = System.nanoTime() + waitNanos;
+        long sleep = waitNanos;
+        while (sleep > 0L) {
+            LockSupport.parkNanos(this, sleep);
+            if (Thread.interrupted()) {
+                reserved.forEach(TokenBucket::cancel);
+                throw new InterruptedException();
+            }
+            sleep = wakeUp - System.nanoTime();
+        }
+    }
+
+    /**
+     * Takes a token from every matching bucket.
+     *
+     * @return the time until the last of the tokens is available, in nanoseconds
+     * @throws RequestThrottledException if that is after the deadline, in which case the tokens have been returned
+     */
+    private long reserveTokens(String tag, EndpointFamily endpointFamily, List<Quota> matching,
+                               List<TokenBucket> reserved, long deadline) throws RequestThrottledException {
+        long waitNanos = 0L;
+        for (Quota quota : matching) {
+            if (quota.bucket != null) {
+                waitNanos = Math.max(waitNanos, quota.bucket.reserve());
+                reserved.add(quota.bucket);
+            }
+        }
+
+        if (waitNanos > remaining(deadline)) {
+            reserved.forEach(TokenBucket::cancel);
+            throw rejected(tag, endpointFamily, "rate limit");
+        }
+        return waitNanos;
+    }
+
+    private RequestThrottledException rejected(String tag, EndpointFamily endpointFamily, String quota) {
+        metrics.meter(MetricRegistry.name("tags", tag, "rejected")).mark();
+        return new RequestThrottledException(tag, endpointFamily, String.format(
+                "%s request of '%s' could not get a %s within %d ms", endpointFamily, tag, quota,
+                TimeUnit.NANOSECONDS.toMillis(maxWaitNanos)));
+    }
+
+    private static long remaining(long deadline) {
+        return Math.max(0L, deadline - System.nanoTime());
+    }
+
+    private static class Quota {
+
+        private final String tag;
+        private final EndpointFamily endpointFamily;
+        private final TokenBucket bucket;
+        private final PrioritySemaphore concurrency;
+
+        Quota(QuotaConfiguration config) {
+            this.tag = config.getTag();
+            this.endpointFamily = config.getEndpointFamily();
+            this.bucket = config.getRequestsPerSecond() == null
+                    ? null
+                    : new TokenBucket(config.getRequestsPerSecond(), config.getBurst());
+            this.concurrency = config.getMaxConcurrentRequests() == null
+                    ? null
+                    : new PrioritySemaphore(config.getMaxConcurrentRequests());
+        }
+
+        boolean matches(String tag, EndpointFamily endpointFamily) {
+            return this.tag.equals(tag) && (this.endpointFamily == null || this.endpointFamily == endpointFamily);
+        }
+    }
+
+    /**
+     * The state of a request waiting in {@link #acquireAsync(String, EndpointFamily)}: it waits for its tokens, then
+     * for each concurrency quota and finally for a connection slot, without ever blocking a thread. Its lock is always
+     * taken before the locks of the semaphores.
+     */
+    private class AsyncAcquisition {
+
+        private final String tag;
+        private final EndpointFamily endpointFamily;
+        private final List<Quota> matching;
+        private final int priority;
+        private final long start = System.nanoTime();
+        private final long deadline = start + maxWaitNanos;
+        private final CompletableFuture<ThrottlePermit> result = new CompletableFuture<>();
+
+        private final List<TokenBucket> reserved = new ArrayList<>();
+        private final List<PrioritySemaphore> pending = new ArrayList<>();
+        private final List<PrioritySemaphore> held = new ArrayList<>();
+        private boolean waitingForTokens = false;
+        private PrioritySemaphore waitingOn = null;
+        private PrioritySemaphore.Waiter waiter = null;
+        private Future<?> expiry = null;
+        private boolean done = false;
+
+        AsyncAcquisition(String tag, EndpointFamily endpointFamily, List<Quota> matching) {
+            this.tag = tag;
+            this.endpointFamily = endpointFamily;
+            this.matching = matching;
+            this.priority = getPriority(tag);
+            for (Quota quota : matching) {
+                if (quota.concurrency != null) {
+                    pending.add(quota.concurrency);
+                }
+            }
+            pending.add(connections);
+        }
+
+        void start() {
+            final long waitNanos;
+            try {
+                waitNanos = reserveTokens(tag, endpointFamily, matching, reserved, deadline);
+            } catch (RequestThrottledException e) {
+                result.completeExceptionally(e);
+                return;
+            }
+
+            if (waitNanos > 0L) {
+                synchronized (this) {
+                    waitingForTokens = true;
+                }
+                scheduleExpiry();
+                schedule(this::tokensAvailable, waitNanos);
+            } else {
+                acquireNext();
+            }
+        }
+
+        private void tokensAvailable() {
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                waitingForTokens = false;
+            }
+            acquireNext();
+        }
+
+        /**
+         * Acquires the pending semaphores in order, until one of them has to be waited for.
+         */
+        private void acquireNext() {
+            boolean complete = false;
+            boolean queued = false;
+            while (!complete && !queued) {
+                synchronized (this) {
+                    if (done) {
+                        return;
+                    }
+                    final PrioritySemaphore semaphore = pending.get(0);
+                    final PrioritySemaphore.Waiter queuedWaiter =
+                            semaphore.acquireAsync(priority, () -> onGranted(semaphore));
+                    if (queuedWaiter == null) {
+                        complete = advance(semaphore);
+                    } else {
+                        waitingOn = semaphore;
+                        waiter = queuedWaiter;
+                        queued = true;
+                    }
+                }
+            }
+
+            if (complete) {
+                complete();
+            } else {
+                scheduleExpiry();
+            }
+        }
+
+        private void onGranted(PrioritySemaphore semaphore) {
+            final boolean expired;
+            final boolean complete;
+            synchronized (this) {
+                waitingOn = null;
+                waiter = null;
+                expired = done;
+                complete = !expired && advance(semaphore);
+            }
+
+            if (expired) {
+                semaphore.release();
+            } else if (complete) {
+                complete();
+            } else {
+                acquireNext();
+            }
+        }
+
+        /**
+         * Records that the given semaphore has been acquired.
+         *
+         * @return {@literal true} if it was the connection slot, so that the request may be sent
+         */
+        private boolean advance(PrioritySemaphore semaphore) {
+            pending.remove(0);
+            if (semaphore == connections) {
+                done = true;
+                return true;
+            }
+            held.add(semaphore);
+            return false;
+        }
+
+        private void complete() {
+            final Future<?> scheduledExpiry;
+            synchronized (this) {
+                scheduledExpiry = expiry;
+            }
+            if (scheduledExpiry != null) {
+                scheduledExpiry.cancel(false);
+                waiting.remove(this);
+            }
+            result.complete(granted(tag, held, start));
+        }
+
+        private void expire() {
+            final List<PrioritySemaphore> release;
+            final String quota;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                done = true;
+                if (waitingForTokens) {
+                    reserved.forEach(TokenBucket::cancel);
+                    quota = "rate limit";
+                } else {
+                    quota = waitingOn == connections ? "connection slot" : "concurrency quota";
+                }
+                if (waiter != null) {
+                    // if the waiter has been granted in the meantime, onGranted releases the permit
+                    waitingOn.cancel(waiter);
+                }
+                release = new ArrayList<>(held);
+            }
+
+            waiting.remove(this);
+            for (PrioritySemaphore semaphore : release) {
+                semaphore.release();
+            }
+            result.completeExceptionally(rejected(tag, endpointFamily, quota));
+        }
+
+        private void scheduleExpiry() {
+            synchronized (this) {
+                if (done || expiry != null) {
+                    return;
+                }
+                // registered first, so that close() expires this acquisition even if it stops the scheduler next
+                waiting.add(this);
+                try {
+                    expiry = scheduler().schedule(this::expire, remaining(deadline), TimeUnit.NANOSECONDS);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // the throttler has been closed
+                }
+            }
+            expire();
+        }
+
+        private void schedule(Runnable task, long delayNanos) {
+            try {
+                scheduler().schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                expire();
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package io.dropwizard.elasticsearch.ratelimit;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The quotas held by a single request, acquired from a {@link RequestThrottler}. The permit must be closed once the
+ * request has completed; closing it more than once has no effect.
+ */
+public class ThrottlePermit implements Closeable {
+
+    private final PrioritySemaphore connections;
+    private final List<PrioritySemaphore> quotas;
+    private final long throttledNanos;
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    ThrottlePermit(PrioritySemaphore connections, List<PrioritySemaphore> quotas, long throttledNanos) {
+        this.connections = connections;
+        this.quotas = quotas;
+        this.throttledNanos = throttledNanos;
+    }
+
+    /**
+     * Get the time the request was held back before it was allowed to proceed.
+     *
+     * @return the throttled time, in nanoseconds
+     */
+    public long getThrottledNanos() {
+        return throttledNanos;
+    }
+
+    /**
+     * Release the quotas held by the request.
+     */
+    @Override
+    public void close() {
+        if (released.compareAndSet(false, true)) {
+            connections.release();
+            for (PrioritySemaphore quota : quotas) {
+                quota.release();
+            }
+        }
+    }
+}
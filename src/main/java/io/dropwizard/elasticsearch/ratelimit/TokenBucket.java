@@ -0,0 +1,59 @@
+package io.dropwizard.elasticsearch.ratelimit;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A token bucket which hands out reservations instead of blocking: the tokens may become negative, in which case
+ * every caller is told how long to wait for its own token, so that waiting callers are served in order.
+ */
+class TokenBucket {
+
+    private final Ticker ticker;
+    private final double tokensPerNano;
+    private final double capacity;
+
+    private double tokens;
+    private long lastRefill;
+
+    TokenBucket(double tokensPerSecond, int capacity) {
+        this(tokensPerSecond, capacity, Ticker.systemTicker());
+    }
+
+    TokenBucket(double tokensPerSecond, int capacity, Ticker ticker) {
+        checkArgument(tokensPerSecond > 0.0d, "Rate must be positive");
+        checkArgument(capacity > 0, "Capacity must be positive");
+
+        this.ticker = checkNotNull(ticker, "Ticker must not be null");
+        this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1L);
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefill = ticker.read();
+    }
+
+    /**
+     * Take a token.
+     *
+     * @return the number of nanoseconds the caller has to wait before its token is available, {@literal 0} if it
+     * is available right away
+     */
+    synchronized long reserve() {
+        final long now = ticker.read();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+
+        tokens -= 1.0d;
+        return tokens >= 0.0d ? 0L : (long) Math.ceil(-tokens / tokensPerNano);
+    }
+
+    /**
+     * Return a token which was reserved but not used, e.g. because the caller gave up waiting for it.
+     */
+    synchronized void cancel() {
+        tokens = Math.min(capacity, tokens + 1.0d);
+    }
+}
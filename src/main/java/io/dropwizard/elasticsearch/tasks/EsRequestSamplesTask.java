@@ -0,0 +1,58 @@
+package io.dropwizard.elasticsearch.tasks;
+
+import com.google.common.collect.ImmutableMultimap;
+import io.dropwizard.elasticsearch.tracing.RequestSampleBuffer;
+import io.dropwizard.elasticsearch.tracing.TracedRequest;
+import io.dropwizard.servlets.tasks.Task;
+
+import java.io.PrintWriter;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A Dropwizard admin {@link Task} which prints the Elasticsearch requests sampled by a
+ * {@link io.dropwizard.elasticsearch.tracing.RequestTracer}, oldest first.
+ * <p>
+ * Pass {@code clear=true} to empty the buffer after printing it.
+ */
+public class EsRequestSamplesTask extends Task {
+
+    private static final String DEFAULT_NAME = "es-request-samples";
+
+    private final RequestSampleBuffer samples;
+
+    /**
+     * Construct a new task with the name {@value #DEFAULT_NAME}.
+     *
+     * @param samples the {@link RequestSampleBuffer} which should be printed
+     */
+    public EsRequestSamplesTask(RequestSampleBuffer samples) {
+        this(DEFAULT_NAME, samples);
+    }
+
+    /**
+     * Construct a new task.
+     *
+     * @param name    the name of the task
+     * @param samples the {@link RequestSampleBuffer} which should be printed
+     */
+    public EsRequestSamplesTask(String name, RequestSampleBuffer samples) {
+        super(name);
+        this.samples = checkNotNull(samples);
+    }
+
+    @Override
+    public void execute(ImmutableMultimap<String, String> parameters, PrintWriter output) throws Exception {
+        final List<TracedRequest> snapshot = samples.snapshot();
+        output.printf("%d sampled requests (capacity %d)%n", snapshot.size(), samples.getCapacity());
+        for (TracedRequest request : snapshot) {
+            output.println(request);
+        }
+
+        if (parameters.containsEntry("clear", "true")) {
+            samples.clear();
+        }
+        output.flush();
+    }
+}
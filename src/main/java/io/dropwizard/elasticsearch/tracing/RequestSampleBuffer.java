@@ -0,0 +1,72 @@
+package io.dropwizard.elasticsearch.tracing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A bounded, lock-free ring buffer holding the most recently sampled {@link TracedRequest}s.
+ * Once the buffer is full, the oldest entries are overwritten.
+ */
+public class RequestSampleBuffer {
+
+    private final AtomicReferenceArray<TracedRequest> entries;
+    private final AtomicLong position = new AtomicLong();
+
+    /**
+     * Create a new sample buffer.
+     *
+     * @param capacity the maximum number of entries kept in the buffer
+     * @throws IllegalArgumentException if {@code capacity} was less than 1
+     */
+    public RequestSampleBuffer(int capacity) {
+        checkArgument(capacity > 0, "The capacity must at least be 1");
+        this.entries = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Add an entry to the buffer, overwriting the oldest entry if the buffer is full.
+     *
+     * @param request the {@link TracedRequest} to add
+     */
+    public void add(TracedRequest request) {
+        final int index = (int) (position.getAndIncrement() % entries.length());
+        entries.set(index, request);
+    }
+
+    /**
+     * Get a snapshot of the buffer's contents.
+     *
+     * @return the entries in the buffer, oldest first
+     */
+    public List<TracedRequest> snapshot() {
+        final long end = position.get();
+        final long start = Math.max(0L, end - entries.length());
+        final List<TracedRequest> result = new ArrayList<>((int) (end - start));
+
+        for (long i = start; i < end; i++) {
+            final TracedRequest request = entries.get((int) (i % entries.length()));
+            if (request != null) {
+                result.add(request);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Remove all entries from the buffer.
+     */
+    public void clear() {
+        for (int i = 0; i < entries.length(); i++) {
+            entries.set(i, null);
+        }
+    }
+
+    public int getCapacity() {
+        return entries.length();
+    }
+}
@@ -0,0 +1,309 @@
+package io.dropwizard.elasticsearch.tracing;
+
+import com.google.common.io.ByteStreams;
+import io.dropwizard.elasticsearch.config.RequestTracingConfiguration;
+import io.dropwizard.util.Duration;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.elasticsearch.client.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Traces the requests of the Elasticsearch clients: logs requests slower than a configurable threshold, samples a
+ * fraction of all requests into a {@link RequestSampleBuffer} and propagates an {@code X-Opaque-Id} header, so that
+ * requests can be correlated with the Elasticsearch slow logs.
+ * <p>
+ * Sampling is done by an HTTP interceptor on the {@link org.elasticsearch.client.RestClient}. An unsampled request
+ * costs a random draw and allocates nothing, unless {@code X-Opaque-Id} headers are generated for every request.
+ * Sampled requests get an {@code X-Opaque-Id} header and a start time in the {@link HttpContext} of the request;
+ * their wall time is measured from dispatching the request until the response headers have been received.
+ * <p>
+ * Slow requests are logged by the {@link io.dropwizard.elasticsearch.client.EsRestHighLevelClient}, which times
+ * every request of the high-level API with a primitive start time until the response has been received completely
+ * and reports it through {@link #slow(String, String, HttpEntity, Header[], Response, long, long)} if
+ * {@link #isSlow(long)}, together with the {@code took} of search and bulk responses. Requests which fail before a
+ * response is received are reported through {@link #failed(String, String, HttpEntity, Header[], long, Exception)}.
+ * Requests sent directly through the low-level client are sampled, but not logged if they are slow.
+ *
+ * @see <a href="https://www.elastic.co/guide/en/elasticsearch/reference/6.0/index-modules-slowlog.html">Slow Log</a>
+ */
+public class RequestTracer implements HttpRequestInterceptor, HttpResponseInterceptor {
+
+    /**
+     * The name of the header which is used by Elasticsearch to identify requests in slow logs and task listings.
+     */
+    public static final String OPAQUE_ID_HEADER = "X-Opaque-Id";
+
+    private static final String START_NANOS_ATTRIBUTE = RequestTracer.class.getName() + ".startNanos";
+
+    private final Logger logger = LoggerFactory.getLogger(RequestTracer.class);
+    private final long slowRequestThresholdNanos;
+    private final double sampleRate;
+    private final int maxLoggedBodyLength;
+    private final boolean generateOpaqueIds;
+    private final String opaqueIdPrefix;
+    private final AtomicLong opaqueIdSequence = new AtomicLong();
+    private final RequestSampleBuffer samples;
+
+    /**
+     * Create a new request tracer from the given configuration.
+     *
+     * @param config a valid {@link RequestTracingConfiguration} instance
+     */
+    public RequestTracer(RequestTracingConfiguration config) {
+        this(checkNotNull(config, "RequestTracingConfiguration must not be null").getSlowRequestThreshold(),
+                config.getSampleRate(),
+                config.getSampleBufferSize(),
+                config.getMaxLoggedBodyLength(),
+                config.isGenerateOpaqueIds(),
+                config.getOpaqueIdPrefix());
+    }
+
+    /**
+     * Create a new request tracer.
+     *
+     * @param slowRequestThreshold requests taking at least this long are logged
+     * @param sampleRate           the fraction of requests which are sampled, between 0.0 and 1.0
+     * @param sampleBufferSize     the maximum number of sampled requests kept in memory
+     * @param maxLoggedBodyLength  the maximum number of request body bytes which are logged
+     * @param generateOpaqueIds    whether an {@code X-Opaque-Id} header should be added to every request without one;
+     *                             sampled requests always get one
+     * @param opaqueIdPrefix       the prefix of generated {@code X-Opaque-Id} values
+     * @throws IllegalArgumentException if any of the numeric parameters is out of range
+     */
+    public RequestTracer(Duration slowRequestThreshold, double sampleRate, int sampleBufferSize,
+                         int maxLoggedBodyLength, boolean generateOpaqueIds, String opaqueIdPrefix) {
+        checkArgument(sampleRate >= 0.0d && sampleRate <= 1.0d, "The sample rate must be between 0.0 and 1.0");
+        checkArgument(maxLoggedBodyLength >= 0, "The maximum logged body length must not be negative");
+
+        this.slowRequestThresholdNanos = checkNotNull(slowRequestThreshold).toNanoseconds();
+        this.sampleRate = sampleRate;
+        this.maxLoggedBodyLength = maxLoggedBodyLength;
+        this.generateOpaqueIds = generateOpaqueIds;
+        this.opaqueIdPrefix = checkNotNull(opaqueIdPrefix);
+        this.samples = new RequestSampleBuffer(sampleBufferSize);
+    }
+
+    /**
+     * Register this tracer with the HTTP client used by the Elasticsearch {@link org.elasticsearch.client.RestClient}.
+     *
+     * @param httpClientBuilder the {@link HttpAsyncClientBuilder} to register the interceptors with
+     * @return the given {@link HttpAsyncClientBuilder}
+     */
+    public HttpAsyncClientBuilder install(HttpAsyncClientBuilder httpClientBuilder) {
+        return httpClientBuilder
+                .addInterceptorLast((HttpRequestInterceptor) this)
+                .addInterceptorFirst((HttpResponseInterceptor) this);
+    }
+
+    /**
+     * Get the buffer holding the most recently sampled requests.
+     *
+     * @return the {@link RequestSampleBuffer} of this tracer
+     */
+    public RequestSampleBuffer getSamples() {
+        return samples;
+    }
+
+    /**
+     * Add a generated {@code X-Opaque-Id} header to the headers of a request if opaque IDs are generated and the
+     * caller didn't pass one, so that the ID is known even if the request fails before it is sent.
+     *
+     * @param headers the headers of the request
+     * @return the given headers, or a copy with an {@code X-Opaque-Id} header added
+     */
+    public Header[] ensureOpaqueId(Header[] headers) {
+        if (!generateOpaqueIds || findOpaqueId(headers) != null) {
+            return headers;
+        }
+        final Header[] withOpaqueId = Arrays.copyOf(headers, headers.length + 1);
+        withOpaqueId[headers.length] = new BasicHeader(OPAQUE_ID_HEADER, nextOpaqueId());
+        return withOpaqueId;
+    }
+
+    /**
+     * Check whether a request exceeded the slow request threshold.
+     *
+     * @param wallTimeNanos the time between sending the request and receiving the response, in nanoseconds
+     * @return {@literal true} if the request should be logged as slow
+     */
+    public boolean isSlow(long wallTimeNanos) {
+        return wallTimeNanos >= slowRequestThresholdNanos;
+    }
+
+    /**
+     * Log a request which exceeded the slow request threshold, see {@link #isSlow(long)}.
+     *
+     * @param method        the HTTP method of the request
+     * @param endpoint      the endpoint of the request
+     * @param entity        the request body, or {@literal null} if there was none
+     * @param headers       the headers of the request
+     * @param response      the completely received response
+     * @param wallTimeNanos the time between sending the request and receiving the end of the response, in nanoseconds
+     * @param tookMillis    the time Elasticsearch reported to have spent on the request, or {@literal -1} if unknown
+     */
+    public void slow(String method, String endpoint, HttpEntity entity, Header[] headers, Response response,
+                     long wallTimeNanos, long tookMillis) {
+        final HttpEntity responseEntity = response.getEntity();
+        final long responseSize = responseEntity == null ? -1L : responseEntity.getContentLength();
+        final TracedRequest traced = new TracedRequest(
+                System.currentTimeMillis(),
+                method,
+                endpoint,
+                response.getHost() == null ? null : response.getHost().toURI(),
+                response.getStatusLine().getStatusCode(),
+                wallTimeNanos,
+                tookMillis,
+                responseSize < 0L ? responseSize(response.getHeader(HttpHeaders.CONTENT_LENGTH)) : responseSize,
+                findOpaqueId(headers),
+                truncatedBody(entity),
+                null);
+
+        logger.warn("Slow Elasticsearch request (threshold {}ms): {}",
+                TimeUnit.NANOSECONDS.toMillis(slowRequestThresholdNanos), traced);
+    }
+
+    /**
+     * Record a request which failed before a response was received, e.g. because it timed out or the connection
+     * failed. Failed requests are always logged and sampled at the configured sample rate.
+     *
+     * @param method        the HTTP method of the request
+     * @param endpoint      the endpoint of the request
+     * @param entity        the request body, or {@literal null} if there was none
+     * @param headers       the headers of the request
+     * @param wallTimeNanos the time between sending the request and the failure, in nanoseconds
+     * @param failure       the reason the request failed
+     */
+    public void failed(String method, String endpoint, HttpEntity entity, Header[] headers, long wallTimeNanos,
+                       Exception failure) {
+        final TracedRequest traced = new TracedRequest(
+                System.currentTimeMillis(),
+                method,
+                endpoint,
+                null,
+                0,
+                wallTimeNanos,
+                -1L,
+                findOpaqueId(headers),
+                truncatedBody(entity),
+                String.valueOf(failure));
+
+        logger.warn("Failed Elasticsearch request: {}", traced);
+        if (sampleRate > 0.0d && ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            samples.add(traced);
+        }
+    }
+
+    @Override
+    public void process(HttpRequest request, HttpContext context) {
+        if (sampleRate > 0.0d && ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            context.setAttribute(START_NANOS_ATTRIBUTE, System.nanoTime());
+            ensureOpaqueId(request);
+        } else if (generateOpaqueIds) {
+            ensureOpaqueId(request);
+        }
+    }
+
+    @Override
+    public void process(HttpResponse response, HttpContext context) {
+        final Object startNanos = context.getAttribute(START_NANOS_ATTRIBUTE);
+        if (startNanos instanceof Long) {
+            samples.add(trace(response, context, System.nanoTime() - (Long) startNanos));
+        }
+    }
+
+    private void ensureOpaqueId(HttpRequest request) {
+        if (!request.containsHeader(OPAQUE_ID_HEADER)) {
+            request.addHeader(OPAQUE_ID_HEADER, nextOpaqueId());
+        }
+    }
+
+    private String nextOpaqueId() {
+        return opaqueIdPrefix + Long.toHexString(opaqueIdSequence.incrementAndGet());
+    }
+
+    private static String findOpaqueId(Header[] headers) {
+        for (Header header : headers) {
+            if (OPAQUE_ID_HEADER.equalsIgnoreCase(header.getName())) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    private TracedRequest trace(HttpResponse response, HttpContext context, long wallTimeNanos) {
+        final HttpRequest request = (HttpRequest) context.getAttribute(HttpCoreContext.HTTP_REQUEST);
+        final HttpHost node = (HttpHost) context.getAttribute(HttpCoreContext.HTTP_TARGET_HOST);
+
+        final String method = request == null ? null : request.getRequestLine().getMethod();
+        final String endpoint = request == null ? null : request.getRequestLine().getUri();
+        final Header opaqueId = request == null ? null : request.getFirstHeader(OPAQUE_ID_HEADER);
+        final Header contentLength = response.getFirstHeader(HttpHeaders.CONTENT_LENGTH);
+
+        return new TracedRequest(
+                System.currentTimeMillis(),
+                method,
+                endpoint,
+                node == null ? null : node.toURI(),
+                response.getStatusLine().getStatusCode(),
+                wallTimeNanos,
+                responseSize(contentLength == null ? null : contentLength.getValue()),
+                opaqueId == null ? null : opaqueId.getValue(),
+                request instanceof HttpEntityEnclosingRequest
+                        ? truncatedBody(((HttpEntityEnclosingRequest) request).getEntity())
+                        : "");
+    }
+
+    private long responseSize(String contentLength) {
+        if (contentLength != null) {
+            try {
+                return Long.parseLong(contentLength);
+            } catch (NumberFormatException e) {
+                logger.debug("Invalid Content-Length header: " + contentLength);
+            }
+        }
+        return -1L;
+    }
+
+    private String truncatedBody(HttpEntity entity) {
+        if (maxLoggedBodyLength == 0 || entity == null) {
+            return "";
+        }
+        if (!entity.isRepeatable()) {
+            return "<streamed>";
+        }
+
+        try (InputStream is = entity.getContent()) {
+            final byte[] buffer = new byte[maxLoggedBodyLength];
+            final int length = ByteStreams.read(is, buffer, 0, buffer.length);
+            final String body = new String(buffer, 0, length, StandardCharsets.UTF_8);
+            return is.read() == -1 ? body : body + "...";
+        } catch (IOException e) {
+            logger.debug("Could not read request body", e);
+            return "<unreadable>";
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package io.dropwizard.elasticsearch.tracing;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An immutable record of a single Elasticsearch request which was sampled, exceeded the slow request threshold of a
+ * {@link RequestTracer} or failed before a response was received.
+ */
+public class TracedRequest {
+
+    private final long timestamp;
+    private final String method;
+    private final String endpoint;
+    private final String node;
+    private final int status;
+    private final long wallTimeNanos;
+    private final long tookMillis;
+    private final long responseSize;
+    private final String opaqueId;
+    private final String body;
+    private final String failure;
+
+    /**
+     * Create a new traced request.
+     *
+     * @param timestamp     the time the response was received, in milliseconds since the epoch
+     * @param method        the HTTP method of the request
+     * @param endpoint      the endpoint (path and query string) of the request
+     * @param node          the Elasticsearch node which served the request
+     * @param status        the HTTP status code of the response
+     * @param wallTimeNanos the time between sending the request and receiving the response headers, in nanoseconds
+     * @param responseSize  the size of the response body in bytes, or {@literal -1} if unknown
+     * @param opaqueId      the {@code X-Opaque-Id} sent with the request, or {@literal null} if none was sent
+     * @param body          the (possibly truncated) request body
+     */
+    public TracedRequest(long timestamp, String method, String endpoint, String node, int status,
+                         long wallTimeNanos, long responseSize, String opaqueId, String body) {
+        this(timestamp, method, endpoint, node, status, wallTimeNanos, -1L, responseSize, opaqueId, body, null);
+    }
+
+    /**
+     * Create a new traced request.
+     *
+     * @param timestamp     the time the response was received or the request failed, in milliseconds since the epoch
+     * @param method        the HTTP method of the request
+     * @param endpoint      the endpoint (path and query string) of the request
+     * @param node          the Elasticsearch node which served the request, or {@literal null} if unknown
+     * @param status        the HTTP status code of the response, or {@literal 0} if no response was received
+     * @param wallTimeNanos the time between sending the request and receiving the response headers or the failure,
+     *                      in nanoseconds
+     * @param responseSize  the size of the response body in bytes, or {@literal -1} if unknown
+     * @param opaqueId      the {@code X-Opaque-Id} sent with the request, or {@literal null} if none was sent
+     * @param body          the (possibly truncated) request body
+     * @param failure       the reason no response was received, or {@literal null} if a response was received
+     */
+    public TracedRequest(long timestamp, String method, String endpoint, String node, int status,
+                         long wallTimeNanos, long responseSize, String opaqueId, String body, String failure) {
+        this(timestamp, method, endpoint, node, status, wallTimeNanos, -1L, responseSize, opaqueId, body, failure);
+    }
+
+    /**
+     * Create a new traced request.
+     *
+     * @param timestamp     the time the response was received or the request failed, in milliseconds since the epoch
+     * @param method        the HTTP method of the request
+     * @param endpoint      the endpoint (path and query string) of the request
+     * @param node          the Elasticsearch node which served the request, or {@literal null} if unknown
+     * @param status        the HTTP status code of the response, or {@literal 0} if no response was received
+     * @param wallTimeNanos the time between sending the request and receiving the response (or its headers) or the
+     *                      failure, in nanoseconds
+     * @param tookMillis    the time Elasticsearch reported to have spent on the request, or {@literal -1} if unknown
+     * @param responseSize  the size of the response body in bytes, or {@literal -1} if unknown
+     * @param opaqueId      the {@code X-Opaque-Id} sent with the request, or {@literal null} if none was sent
+     * @param body          the (possibly truncated) request body
+     * @param failure       the reason no response was received, or {@literal null} if a response was received
+     */
+    public TracedRequest(long timestamp, String method, String endpoint, String node, int status,
+                         long wallTimeNanos, long tookMillis, long responseSize, String opaqueId, String body,
+                         String failure) {
+        this.timestamp = timestamp;
+        this.method = method;
+        this.endpoint = endpoint;
+        this.node = node;
+        this.status = status;
+        this.wallTimeNanos = wallTimeNanos;
+        this.tookMillis = tookMillis;
+        this.responseSize = responseSize;
+        this.opaqueId = opaqueId;
+        this.body = body;
+        this.failure = failure;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public long getWallTimeNanos() {
+        return wallTimeNanos;
+    }
+
+    public long getWallTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(wallTimeNanos);
+    }
+
+    /**
+     * Get the time Elasticsearch reported to have spent on the request, e.g. the {@code took} of a search.
+     *
+     * @return the time in milliseconds, or {@literal -1} if unknown
+     */
+    public long getTookMillis() {
+        return tookMillis;
+    }
+
+    public long getResponseSize() {
+        return responseSize;
+    }
+
+    public String getOpaqueId() {
+        return opaqueId;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public String getFailure() {
+        return failure;
+    }
+
+    public boolean isFailed() {
+        return failure != null;
+    }
+
+    @Override
+    public String toString() {
+        if (failure != null) {
+            return String.format("%s %s %s failed: %s wall=%dms opaqueId=%s body=%s",
+                    Instant.ofEpochMilli(timestamp), method, endpoint, failure, getWallTimeMillis(), opaqueId, body);
+        }
+        return String.format("%s %s %s on %s: status=%d %swall=%dms size=%d opaqueId=%s body=%s",
+                Instant.ofEpochMilli(timestamp), method, endpoint, node, status,
+                tookMillis < 0L ? "" : "took=" + tookMillis + "ms ", getWallTimeMillis(), responseSize, opaqueId, body);
+    }
+}
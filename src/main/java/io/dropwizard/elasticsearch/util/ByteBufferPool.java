@@ -0,0 +1,86 @@
+package io.dropwizard.elasticsearch.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A bounded pool of direct or heap {@link ByteBuffer}s of a fixed size.
+ * <p>
+ * Buffers are allocated on demand; released buffers are kept for reuse until the pool holds its maximum number of
+ * buffers, all further released buffers are left to the garbage collector.
+ */
+public class ByteBufferPool {
+
+    private final int bufferSize;
+    private final boolean direct;
+    private final BlockingQueue<ByteBuffer> buffers;
+
+    /**
+     * Create a new pool of direct buffers.
+     *
+     * @param bufferSize       the size of each buffer in bytes
+     * @param maxPooledBuffers the maximum number of idle buffers kept in the pool
+     * @throws IllegalArgumentException if {@code bufferSize} or {@code maxPooledBuffers} was less than 1
+     */
+    public ByteBufferPool(int bufferSize, int maxPooledBuffers) {
+        this(bufferSize, maxPooledBuffers, true);
+    }
+
+    /**
+     * Create a new buffer pool.
+     *
+     * @param bufferSize       the size of each buffer in bytes
+     * @param maxPooledBuffers the maximum number of idle buffers kept in the pool
+     * @param direct           whether direct or heap buffers should be allocated
+     * @throws IllegalArgumentException if {@code bufferSize} or {@code maxPooledBuffers} was less than 1
+     */
+    public ByteBufferPool(int bufferSize, int maxPooledBuffers, boolean direct) {
+        checkArgument(bufferSize > 0, "The buffer size must at least be 1");
+        checkArgument(maxPooledBuffers > 0, "The maximum number of pooled buffers must at least be 1");
+
+        this.bufferSize = bufferSize;
+        this.direct = direct;
+        this.buffers = new ArrayBlockingQueue<>(maxPooledBuffers);
+    }
+
+    /**
+     * Take a buffer from the pool, or allocate a new one if the pool is empty.
+     *
+     * @return a cleared {@link ByteBuffer} of {@link #getBufferSize()} bytes
+     */
+    public ByteBuffer acquire() {
+        final ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Return a buffer to the pool. Buffers which weren't acquired from this pool are ignored.
+     *
+     * @param buffer the {@link ByteBuffer} to return
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer.isDirect() == direct && buffer.capacity() == bufferSize) {
+            buffer.clear();
+            buffers.offer(buffer);
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    public int getPooledBuffers() {
+        return buffers.size();
+    }
+}
@@ -0,0 +1,26 @@
+package io.dropwizard.elasticsearch.bulk;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for {@link BulkLoadReport}.
+ */
+public class BulkLoadReportTest {
+
+    @Test
+    public void documentsPerSecondShouldBeCalculatedFromLoadTime() {
+        BulkLoadReport report = new BulkLoadReport(ImmutableList.of("index"), 5000L, 2000L, 10000L, "green");
+
+        assertEquals(2500.0d, report.getDocumentsPerSecond(), 0.001d);
+    }
+
+    @Test
+    public void documentsPerSecondShouldBeZeroWithoutLoadTime() {
+        BulkLoadReport report = new BulkLoadReport(ImmutableList.of("index"), 5000L, 0L, 0L, "green");
+
+        assertEquals(0.0d, report.getDocumentsPerSecond(), 0.001d);
+    }
+}
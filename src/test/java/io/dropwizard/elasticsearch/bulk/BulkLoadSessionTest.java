@@ -0,0 +1,267 @@
+package io.dropwizard.elasticsearch.bulk;
+
+import com.google.common.collect.ImmutableList;
+import io.dropwizard.elasticsearch.config.BulkLoadConfiguration;
+import io.dropwizard.jackson.Jackson;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpVersion;
+import org.apache.http.StatusLine;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.nio.entity.NStringEntity;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link BulkLoadSession}.
+ */
+public class BulkLoadSessionTest {
+
+    private RestClient restClient;
+    private RestHighLevelClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        restClient = mock(RestClient.class);
+        client = mock(RestHighLevelClient.class);
+        when(client.getLowLevelClient()).thenReturn(restClient);
+
+        final Response settings = response("{\"my-index\":{\"settings\":{"
+                + "\"index.refresh_interval\":\"5s\",\"index.number_of_replicas\":\"2\"}}}");
+        when(restClient.performRequest(eq("GET"), startsWith("/my-index/_settings/"), anyMap())).thenReturn(settings);
+        final Response stats = response("{\"_all\":{\"primaries\":{\"docs\":{\"count\":10}}}}");
+        when(restClient.performRequest(eq("GET"), eq("/my-index/_stats/docs"), anyMap())).thenReturn(stats);
+        final Response health = response("{\"status\":\"green\"}");
+        when(restClient.performRequest(eq("GET"), eq("/_cluster/health/my-index"), anyMap())).thenReturn(health);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void initializationWithNullClientShouldFail() {
+        new BulkLoadSession(null, new BulkLoadConfiguration(), ImmutableList.of("index"));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void initializationWithNullConfigurationShouldFail() {
+        new BulkLoadSession(mock(RestHighLevelClient.class), null, ImmutableList.of("index"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void initializationWithoutIndicesShouldFail() {
+        new BulkLoadSession(mock(RestHighLevelClient.class), new BulkLoadConfiguration(), Collections.<String>emptyList());
+    }
+
+    @Test
+    public void newSessionShouldNotBeOpen() throws Exception {
+        BulkLoadSession session = new BulkLoadSession(mock(RestHighLevelClient.class), new BulkLoadConfiguration(),
+                ImmutableList.of("index"));
+
+        assertFalse(session.isOpen());
+        session.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void finishingUnopenedSessionShouldFail() throws Exception {
+        new BulkLoadSession(mock(RestHighLevelClient.class), new BulkLoadConfiguration(), ImmutableList.of("index"))
+                .finish();
+    }
+
+    @Test
+    public void openShouldApplyBulkLoadSettings() throws Exception {
+        final BulkLoadSession session = session("{}").open();
+
+        assertTrue(session.isOpen());
+        verify(restClient).performRequest(eq("GET"),
+                eq("/my-index/_settings/index.refresh_interval,index.number_of_replicas,index.translog.durability"),
+                eq(Collections.singletonMap("flat_settings", "true")));
+        assertEquals(Collections.singletonList(BulkLoadSession.BULK_LOAD_SETTINGS), capturedSettings());
+    }
+
+    @Test
+    public void finishShouldRestoreOriginalSettings() throws Exception {
+        final BulkLoadSession session = session("{}").open();
+
+        final BulkLoadReport report = session.finish();
+
+        assertFalse(session.isOpen());
+        assertEquals("green", report.getHealthStatus());
+        verify(restClient).performRequest("POST", "/my-index/_refresh");
+        final List<Map<String, Object>> settings = capturedSettings();
+        assertEquals(2, settings.size());
+        assertEquals(originalSettings(), settings.get(1));
+    }
+
+    @Test
+    public void settingsShouldBeRestoredIfRefreshFails() throws Exception {
+        final BulkLoadSession session = session("{}").open();
+        when(restClient.performRequest("POST", "/my-index/_refresh")).thenThrow(new IOException("refresh failed"));
+
+        try {
+            session.finish();
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertEquals("refresh failed", e.getMessage());
+        }
+
+        assertFalse(session.isOpen());
+        assertEquals(originalSettings(), capturedSettings().get(1));
+    }
+
+    @Test
+    public void settingsShouldBeRestoredIfForceMergeFails() throws Exception {
+        final BulkLoadSession session = session("{\"forceMergeMaxSegments\":1}").open();
+        mergeFailsWith(new IOException("merge failed"));
+
+        session.finish();
+
+        assertFalse(session.isOpen());
+        assertEquals(originalSettings(), capturedSettings().get(1));
+        verify(restClient, never()).performRequest(eq("GET"), eq("/_tasks"), anyMap());
+    }
+
+    @Test
+    public void timedOutForceMergeShouldBeAwaitedBeforeRestoringSettings() throws Exception {
+        final BulkLoadSession session = session("{\"forceMergeMaxSegments\":1}").open();
+        mergeFailsWith(new SocketTimeoutException());
+        final Response running = response("{\"nodes\":{\"node-1\":{\"tasks\":{\"node-1:1\":{}}}}}");
+        final Response finished = response("{\"nodes\":{}}");
+        when(restClient.performRequest(eq("GET"), eq("/_tasks"), anyMap())).thenReturn(running, finished);
+
+        session.finish();
+
+        verify(restClient, times(2)).performRequest(eq("GET"), eq("/_tasks"),
+                eq(Collections.singletonMap("actions", "indices:admin/forcemerge")));
+        assertEquals(originalSettings(), capturedSettings().get(1));
+    }
+
+    @Test
+    public void abortShouldOnlyRestoreSettings() throws Exception {
+        final BulkLoadSession session = session("{}").open();
+
+        session.abort();
+
+        assertFalse(session.isOpen());
+        assertEquals(originalSettings(), capturedSettings().get(1));
+        verify(restClient, never()).performRequest("POST", "/my-index/_refresh");
+        verify(restClient, never()).performRequest(eq("GET"), eq("/_cluster/health/my-index"), anyMap());
+    }
+
+    @Test
+    public void openShouldRejectIndexWhichAlreadyHasBulkLoadSettings() throws Exception {
+        final Response settings = response("{\"my-index\":{\"settings\":{\"index.refresh_interval\":\"-1\","
+                + "\"index.number_of_replicas\":\"0\",\"index.translog.durability\":\"async\"}}}");
+        when(restClient.performRequest(eq("GET"), startsWith("/my-index/_settings/"), anyMap())).thenReturn(settings);
+        final BulkLoadSession session = session("{}");
+
+        try {
+            session.open();
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("my-index"));
+        }
+
+        assertFalse(session.isOpen());
+        verify(restClient, never()).performRequest(eq("PUT"), eq("/my-index/_settings"), anyMap(), any(HttpEntity.class));
+    }
+
+    @Test
+    public void failedRestoreShouldKeepSessionOpenForRetry() throws Exception {
+        final BulkLoadSession session = session("{}").open();
+        when(restClient.performRequest(eq("PUT"), eq("/my-index/_settings"), anyMap(), any(HttpEntity.class)))
+                .thenThrow(new IOException("restore failed"))
+                .thenReturn(response("{}"));
+
+        try {
+            session.abort();
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertEquals("restore failed", e.getMessage());
+        }
+        assertTrue(session.isOpen());
+
+        session.abort();
+
+        assertFalse(session.isOpen());
+        final List<Map<String, Object>> settings = capturedSettings();
+        assertEquals(3, settings.size());
+        assertEquals(originalSettings(), settings.get(2));
+    }
+
+    private BulkLoadSession session(String config) throws IOException {
+        return new BulkLoadSession(client, Jackson.newObjectMapper().readValue(config, BulkLoadConfiguration.class),
+                ImmutableList.of("my-index"));
+    }
+
+    private void mergeFailsWith(Exception failure) {
+        doAnswer(invocation -> {
+            invocation.<ResponseListener>getArgument(3).onFailure(failure);
+            return null;
+        }).when(restClient).performRequestAsync(eq("POST"), eq("/my-index/_forcemerge"), anyMap(),
+                any(ResponseListener.class));
+    }
+
+    private List<Map<String, Object>> capturedSettings() throws IOException {
+        final ArgumentCaptor<HttpEntity> entity = ArgumentCaptor.forClass(HttpEntity.class);
+        verify(restClient, atLeastOnce())
+                .performRequest(eq("PUT"), eq("/my-index/_settings"), anyMap(), entity.capture());
+        final List<Map<String, Object>> settings = new ArrayList<>();
+        for (HttpEntity body : entity.getAllValues()) {
+            settings.add(XContentHelper.convertToMap(XContentType.JSON.xContent(), EntityUtils.toString(body), true));
+        }
+        return settings;
+    }
+
+    private static Map<String, Object> originalSettings() {
+        final Map<String, Object> settings = new HashMap<>();
+        settings.put(BulkLoadSession.REFRESH_INTERVAL, "5s");
+        settings.put(BulkLoadSession.NUMBER_OF_REPLICAS, "2");
+        settings.put(BulkLoadSession.TRANSLOG_DURABILITY, null);
+        return settings;
+    }
+
+    private static Response response(String json) {
+        final StatusLine statusLine = new BasicStatusLine(HttpVersion.HTTP_1_1, 200, "OK");
+        final HttpEntity entity = new NStringEntity(json, ContentType.APPLICATION_JSON);
+        return mock(Response.class, invocation -> {
+            switch (invocation.getMethod().getName()) {
+                case "getStatusLine":
+                    return statusLine;
+                case "getEntity":
+                    return entity;
+                default:
+                    return null;
+            }
+        });
+    }
+}
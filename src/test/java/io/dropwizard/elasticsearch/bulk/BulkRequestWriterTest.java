@@ -0,0 +1,267 @@
+package io.dropwizard.elasticsearch.bulk;
+
+import com.google.common.collect.ImmutableMap;
+import io.dropwizard.elasticsearch.config.RateLimitConfiguration;
+import io.dropwizard.elasticsearch.ratelimit.EndpointFamily;
+import io.dropwizard.elasticsearch.ratelimit.RequestThrottledException;
+import io.dropwizard.elasticsearch.ratelimit.RequestThrottler;
+import io.dropwizard.elasticsearch.ratelimit.ThrottlePermit;
+import io.dropwizard.elasticsearch.util.ByteBufferPool;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.util.Duration;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+import org.apache.http.nio.entity.NStringEntity;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit tests for {@link BulkRequestWriter}.
+ */
+public class BulkRequestWriterTest {
+
+    @Test(expected = NullPointerException.class)
+    public void initializationWithNullPoolShouldFail() {
+        new BulkRequestWriter(null);
+    }
+
+    @Test
+    public void actionsShouldBeWrittenAsNdjson() throws IOException {
+        BulkRequestWriter writer = new BulkRequestWriter(new ByteBufferPool(16, 4));
+        writer.index("index", "doc", "1", ImmutableMap.of("message", "h\u00e9llo \"world\"\n"))
+                .index("index", "doc", null, "{\"a\":1}".getBytes(StandardCharsets.UTF_8))
+                .delete("index", "doc", "2");
+
+        String expected = "{\"index\":{\"_index\":\"index\",\"_type\":\"doc\",\"_id\":\"1\"}}\n"
+                + "{\"message\":\"h\u00e9llo \\\"world\\\"\\n\"}\n"
+                + "{\"index\":{\"_index\":\"index\",\"_type\":\"doc\"}}\n"
+                + "{\"a\":1}\n"
+                + "{\"delete\":{\"_index\":\"index\",\"_type\":\"doc\",\"_id\":\"2\"}}\n";
+
+        assertEquals(expected, body(writer.toEntity()));
+        assertEquals(3, writer.numberOfActions());
+        assertEquals(expected.getBytes(StandardCharsets.UTF_8).length, writer.length());
+    }
+
+    @Test
+    public void largeSourcesShouldBeSentAsTheyAre() throws IOException {
+        byte[] source = new byte[4096];
+        Arrays.fill(source, (byte) 'a');
+        source[0] = '"';
+        source[source.length - 1] = '"';
+
+        BulkRequestWriter writer = new BulkRequestWriter(new ByteBufferPool(64, 4));
+        writer.index("index", "doc", "1", ByteBuffer.wrap(source));
+
+        HttpEntity entity = writer.toEntity();
+        String body = body(entity);
+
+        assertTrue(body.endsWith(new String(source, StandardCharsets.UTF_8) + "\n"));
+        assertEquals(body.length(), entity.getContentLength());
+    }
+
+    @Test
+    public void entityShouldBeProducedInChunksAndBeRepeatable() throws IOException {
+        BulkRequestWriter writer = new BulkRequestWriter(new ByteBufferPool(16, 4));
+        writer.index("index", "doc", "1", ImmutableMap.of("field", "value"));
+        HttpEntity entity = writer.toEntity();
+        String expected = body(entity);
+
+        HttpAsyncContentProducer producer = (HttpAsyncContentProducer) entity;
+        for (int attempt = 0; attempt < 2; attempt++) {
+            ChunkedEncoder encoder = new ChunkedEncoder(5);
+            while (!encoder.isCompleted()) {
+                producer.produceContent(encoder, null);
+            }
+            producer.close();
+
+            assertEquals(expected, new String(encoder.output.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void resetShouldReturnBuffersToPool() throws IOException {
+        ByteBufferPool pool = new ByteBufferPool(16, 8);
+        BulkRequestWriter writer = new BulkRequestWriter(pool);
+        writer.index("index", "doc", "1", ImmutableMap.of("field", "value"));
+
+        writer.reset();
+
+        assertTrue(pool.getPooledBuffers() > 0);
+        assertEquals(0, writer.numberOfActions());
+        assertEquals(0L, writer.length());
+    }
+
+    @Test
+    public void executeShouldReturnBuffersToPoolOnceRequestHasCompleted() throws IOException {
+        ByteBufferPool pool = new ByteBufferPool(16, 8);
+        BulkRequestWriter writer = new BulkRequestWriter(pool);
+        writer.index("index", "doc", "1", ImmutableMap.of("field", "value"));
+        RestClient client = mock(RestClient.class);
+        Response response = response("{\"took\":1,\"errors\":false,\"items\":[]}");
+        AtomicInteger pooledWhileSending = new AtomicInteger(-1);
+        doAnswer(invocation -> {
+            pooledWhileSending.set(pool.getPooledBuffers());
+            invocation.<ResponseListener>getArgument(4).onSuccess(response);
+            return null;
+        }).when(client).performRequestAsync(eq("POST"), eq("/_bulk"), anyMap(), any(HttpEntity.class),
+                any(ResponseListener.class));
+
+        BulkResponse bulkResponse = writer.execute(client);
+
+        assertFalse(bulkResponse.hasFailures());
+        assertEquals(0, pooledWhileSending.get());
+        assertTrue(pool.getPooledBuffers() > 0);
+        assertEquals(0, writer.numberOfActions());
+    }
+
+    @Test
+    public void buffersOfTimedOutRequestShouldNotBeReturnedToPool() throws IOException {
+        ByteBufferPool pool = new ByteBufferPool(16, 8);
+        BulkRequestWriter writer = new BulkRequestWriter(pool, Duration.milliseconds(10));
+        writer.index("index", "doc", "1", ImmutableMap.of("field", "value"));
+        RestClient client = mock(RestClient.class);
+        AtomicReference<ResponseListener> listener = new AtomicReference<>();
+        doAnswer(invocation -> {
+            listener.set(invocation.getArgument(4));
+            return null;
+        }).when(client).performRequestAsync(eq("POST"), eq("/_bulk"), anyMap(), any(HttpEntity.class),
+                any(ResponseListener.class));
+
+        try {
+            writer.execute(client);
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("did not complete"));
+        }
+        listener.get().onFailure(new SocketTimeoutException());
+
+        assertEquals(0, pool.getPooledBuffers());
+        assertEquals(0, writer.numberOfActions());
+    }
+
+    @Test
+    public void throttledRequestShouldHoldBulkPermitUntilResponse() throws IOException {
+        RequestThrottler throttler = throttler();
+        ByteBufferPool pool = new ByteBufferPool(16, 8);
+        BulkRequestWriter writer = new BulkRequestWriter(pool, Duration.seconds(10), throttler, "batch");
+        writer.index("index", "doc", "1", ImmutableMap.of("field", "value"));
+        RestClient client = mock(RestClient.class);
+        Response response = response("{\"took\":1,\"errors\":false,\"items\":[]}");
+        AtomicInteger availableWhileSending = new AtomicInteger(-1);
+        doAnswer(invocation -> {
+            availableWhileSending.set(availableConnections(throttler));
+            invocation.<ResponseListener>getArgument(4).onSuccess(response);
+            return null;
+        }).when(client).performRequestAsync(eq("POST"), eq("/_bulk"), anyMap(), any(HttpEntity.class),
+                any(ResponseListener.class));
+
+        writer.execute(client);
+
+        assertEquals(0, availableWhileSending.get());
+        assertEquals(1, availableConnections(throttler));
+        assertEquals(1L, throttler.getMetrics().timer("tags.batch.throttled").getCount());
+    }
+
+    @Test
+    public void rejectedRequestShouldNotBeSent() throws IOException {
+        RequestThrottler throttler = throttler();
+        ByteBufferPool pool = new ByteBufferPool(16, 8);
+        BulkRequestWriter writer = new BulkRequestWriter(pool, Duration.seconds(10), throttler, "batch");
+        writer.index("index", "doc", "1", ImmutableMap.of("field", "value"));
+        RestClient client = mock(RestClient.class);
+        ThrottlePermit held = throttler.acquire(null, EndpointFamily.SEARCH);
+
+        try {
+            writer.execute(client);
+            fail("RequestThrottledException expected");
+        } catch (RequestThrottledException e) {
+            assertEquals(EndpointFamily.BULK, e.getEndpointFamily());
+        }
+
+        held.close();
+        verify(client, never()).performRequestAsync(anyString(), anyString(), anyMap(), any(HttpEntity.class),
+                any(ResponseListener.class));
+        assertTrue(pool.getPooledBuffers() > 0);
+    }
+
+    private static RequestThrottler throttler() throws IOException {
+        return new RequestThrottler(Jackson.newObjectMapper().readValue(
+                "{\"maxConcurrentRequests\":1,\"maxWait\":\"10ms\",\"priorities\":{\"batch\":0}}",
+                RateLimitConfiguration.class));
+    }
+
+    private static int availableConnections(RequestThrottler throttler) {
+        return (Integer) throttler.getMetrics().getGauges().get("connections.available").getValue();
+    }
+
+    private static Response response(String json) {
+        HttpEntity entity = new NStringEntity(json, ContentType.APPLICATION_JSON);
+        return mock(Response.class, invocation -> "getEntity".equals(invocation.getMethod().getName()) ? entity : null);
+    }
+
+    private static String body(HttpEntity entity) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        entity.writeTo(output);
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A {@link ContentEncoder} which accepts at most a given number of bytes per write.
+     */
+    private static class ChunkedEncoder implements ContentEncoder {
+        private final int chunkSize;
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        private boolean completed = false;
+
+        ChunkedEncoder(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int count = Math.min(chunkSize, src.remaining());
+            for (int i = 0; i < count; i++) {
+                output.write(src.get());
+            }
+            return count;
+        }
+
+        @Override
+        public void complete() {
+            completed = true;
+        }
+
+        @Override
+        public boolean isCompleted() {
+            return completed;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package io.dropwizard.elasticsearch.client;
+
+import io.dropwizard.elasticsearch.config.RateLimitConfiguration;
+import io.dropwizard.elasticsearch.ratelimit.EndpointFamily;
+import io.dropwizard.elasticsearch.ratelimit.RequestThrottler;
+import io.dropwizard.elasticsearch.ratelimit.ThrottlePermit;
+import io.dropwizard.elasticsearch.tracing.RequestTracer;
+import io.dropwizard.elasticsearch.tracing.TracedRequest;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.util.Duration;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.nio.entity.NStringEntity;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.HttpAsyncResponseConsumerFactory;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link EsRestHighLevelClient}.
+ */
+public class EsRestHighLevelClientTest {
+
+    private RestClient restClient;
+    private RequestTracer requestTracer;
+    private HttpAsyncResponseConsumerFactory responseConsumerFactory;
+    private EsRestHighLevelClient client;
+
+    @Before
+    public void setup() {
+        restClient = mock(RestClient.class);
+        requestTracer = new RequestTracer(Duration.minutes(1), 1.0d, 10, 100, true, "test-");
+        responseConsumerFactory = new HttpAsyncResponseConsumerFactory.HeapBufferedResponseConsumerFactory(1024);
+        client = new EsRestHighLevelClient(restClient, requestTracer, null, responseConsumerFactory);
+    }
+
+    @Test
+    public void failedRequestsShouldBeTraced() throws IOException {
+        IOException timeout = new IOException("listener timeout after waiting for [30000] ms");
+        when(restClient.performRequest(anyString(), anyString(), anyMap(), nullable(HttpEntity.class),
+                same(responseConsumerFactory), Mockito.<Header>any())).thenThrow(timeout);
+
+        try {
+            client.info();
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertSame(timeout, e);
+        }
+
+        List<TracedRequest> samples = requestTracer.getSamples().snapshot();
+        assertEquals(1, samples.size());
+        assertTrue(samples.get(0).isFailed());
+        assertEquals("GET", samples.get(0).getMethod());
+        assertEquals("/", samples.get(0).getEndpoint());
+        assertEquals("test-1", samples.get(0).getOpaqueId());
+    }
+
+    @Test
+    public void failedAsyncRequestsShouldBeTraced() {
+        ConnectException refused = new ConnectException("Connection refused");
+        doAnswer(invocation -> {
+            ((ResponseListener) invocation.getArgument(5)).onFailure(refused);
+            return null;
+        }).when(restClient).performRequestAsync(anyString(), anyString(), anyMap(), nullable(HttpEntity.class),
+                same(responseConsumerFactory), any(ResponseListener.class), Mockito.<Header>any());
+        AtomicReference<Exception> failure = new AtomicReference<>();
+
+        client.searchAsync(new SearchRequest("index"), new ActionListener<SearchResponse>() {
+            @Override
+            public void onResponse(SearchResponse searchResponse) {
+                fail("Expected failure");
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                failure.set(e);
+            }
+        });
+
+        assertSame(refused, failure.get());
+        List<TracedRequest> samples = requestTracer.getSamples().snapshot();
+        assertEquals(1, samples.size());
+        assertEquals("/index/_search", samples.get(0).getEndpoint());
+        assertEquals("java.net.ConnectException: Connection refused", samples.get(0).getFailure());
+    }
+
+    @Test
+    public void slowSearchShouldBeLoggedWithTook() throws IOException {
+        RequestTracer tracer = spy(new RequestTracer(Duration.milliseconds(0), 0.0d, 10, 100, false, "test-"));
+        client = new EsRestHighLevelClient(restClient, tracer, null, responseConsumerFactory);
+        Response response = response("{\"took\":5,\"timed_out\":false,"
+                + "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},"
+                + "\"hits\":{\"total\":0,\"max_score\":null,\"hits\":[]}}");
+        when(restClient.performRequest(anyString(), anyString(), anyMap(), nullable(HttpEntity.class),
+                same(responseConsumerFactory), Mockito.<Header>any())).thenReturn(response);
+
+        client.search(new SearchRequest("index"));
+
+        verify(tracer).slow(eq("GET"), eq("/index/_search"), any(HttpEntity.class), any(Header[].class),
+                same(response), anyLong(), eq(5L));
+    }
+
+    @Test
+    public void slowAsyncBulkShouldBeLoggedWithTook() {
+        RequestTracer tracer = spy(new RequestTracer(Duration.milliseconds(0), 0.0d, 10, 100, false, "test-"));
+        client = new EsRestHighLevelClient(restClient, tracer, null, responseConsumerFactory);
+        Response response = response("{\"took\":7,\"errors\":false,\"items\":[]}");
+        doAnswer(invocation -> {
+            ((ResponseListener) invocation.getArgument(5)).onSuccess(response);
+            return null;
+        }).when(restClient).performRequestAsync(anyString(), anyString(), anyMap(), nullable(HttpEntity.class),
+                same(responseConsumerFactory), any(ResponseListener.class), Mockito.<Header>any());
+        AtomicReference<BulkResponse> bulkResponse = new AtomicReference<>();
+        BulkRequest request = new BulkRequest().add(new IndexRequest("index", "type", "1").source("{}", XContentType.JSON));
+
+        client.bulkAsync(request, new ActionListener<BulkResponse>() {
+            @Override
+            public void onResponse(BulkResponse response) {
+                bulkResponse.set(response);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                fail("Expected response");
+            }
+        });
+
+        assertEquals(7L, bulkResponse.get().getTook().millis());
+        verify(tracer).slow(eq("POST"), eq("/_bulk"), any(HttpEntity.class), any(Header[].class), same(response),
+                anyLong(), eq(7L));
+    }
+
+    @Test
+    public void fastRequestsShouldNotBeLoggedOrTagged() throws IOException {
+        RequestTracer tracer = spy(new RequestTracer(Duration.minutes(1), 0.0d, 10, 100, false, "test-"));
+        client = new EsRestHighLevelClient(restClient, tracer, null, responseConsumerFactory);
+        List<Header> sent = new ArrayList<>();
+        when(restClient.performRequest(anyString(), anyString(), anyMap(), nullable(HttpEntity.class),
+                same(responseConsumerFactory), Mockito.<Header>any())).thenAnswer(invocation -> {
+                    sent.addAll(headers(invocation.getArguments()));
+                    return response("{\"took\":5,\"errors\":false,\"items\":[]}");
+                });
+
+        client.bulk(new BulkRequest().add(new IndexRequest("index", "type", "1").source("{}", XContentType.JSON)));
+
+        assertTrue(sent.isEmpty());
+        verify(tracer, never()).slow(anyString(), anyString(), any(HttpEntity.class), any(Header[].class),
+                any(Response.class), anyLong(), anyLong());
+    }
+
+    @Test
+    public void tookShouldBeUnknownForOtherResponses() {
+        assertEquals(-1L, EsRestHighLevelClient.tookMillis(null));
+        assertEquals(-1L, EsRestHighLevelClient.tookMillis(Boolean.TRUE));
+    }
+
+    @Test
+    public void throttledRequestsShouldReleasePermitAndNotSendCallerTag() throws IOException {
+        RequestThrottler throttler = throttler();
+        client = new EsRestHighLevelClient(restClient, null, throttler, responseConsumerFactory);
+        List<Header> sent = new ArrayList<>();
+        when(restClient.performRequest(anyString(), anyString(), anyMap(), nullable(HttpEntity.class),
+                same(responseConsumerFactory), Mockito.<Header>any())).thenAnswer(invocation -> {
+                    sent.addAll(headers(invocation.getArguments()));
+                    throw new IOException("timeout");
+                });
+
+        try {
+            client.info(EsRestHighLevelClient.callerTag("batch"));
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals("timeout", e.getMessage());
+        }
+
+        assertTrue(sent.stream().noneMatch(header -> EsRestHighLevelClient.CALLER_TAG_HEADER.equals(header.getName())));
+        assertEquals(1L, throttler.getMetrics().timer("tags.batch.throttled").getCount());
+        assertEquals(1, throttler.getMetrics().getGauges().get("connections.available").getValue());
+    }
+
+    @Test
+    public void queuedAsyncRequestShouldBeSentOnceThePermitIsReleased() throws IOException {
+        RequestThrottler throttler = throttler();
+        client = new EsRestHighLevelClient(restClient, null, throttler, responseConsumerFactory);
+        AtomicReference<ResponseListener> responseListener = new AtomicReference<>();
+        doAnswer(invocation -> {
+            responseListener.set(invocation.getArgument(5));
+            return null;
+        }).when(restClient).performRequestAsync(anyString(), anyString(), anyMap(), nullable(HttpEntity.class),
+                same(responseConsumerFactory), any(ResponseListener.class), Mockito.<Header>any());
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        ThrottlePermit held = throttler.acquire(null, EndpointFamily.SEARCH);
+
+        client.searchAsync(new SearchRequest("index"), new ActionListener<SearchResponse>() {
+            @Override
+            public void onResponse(SearchResponse searchResponse) {
+                fail("Expected failure");
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                failure.set(e);
+            }
+        }, EsRestHighLevelClient.callerTag("batch"));
+
+        verify(restClient, never()).performRequestAsync(anyString(), anyString(), anyMap(), nullable(HttpEntity.class),
+                any(HttpAsyncResponseConsumerFactory.class), any(ResponseListener.class), Mockito.<Header>any());
+        held.close();
+        assertTrue(responseListener.get() != null);
+        assertEquals(0, throttler.getMetrics().getGauges().get("connections.available").getValue());
+
+        ConnectException refused = new ConnectException("Connection refused");
+        responseListener.get().onFailure(refused);
+        assertSame(refused, failure.get());
+        assertEquals(1, throttler.getMetrics().getGauges().get("connections.available").getValue());
+    }
+
+    @Test
+    public void callerTagShouldBeFoundInHeaders() {
+        Header[] headers = {new BasicHeader("X-Opaque-Id", "1"), EsRestHighLevelClient.callerTag("batch")};
+
+        assertEquals("batch", EsRestHighLevelClient.findCallerTag(headers));
+    }
+
+    @Test
+    public void missingCallerTagShouldBeNull() {
+        assertNull(EsRestHighLevelClient.findCallerTag(new Header[0]));
+    }
+
+    @Test
+    public void callerTagShouldBeRemovedFromHeaders() {
+        Header opaqueId = new BasicHeader("X-Opaque-Id", "1");
+        Header[] headers = {EsRestHighLevelClient.callerTag("batch"), opaqueId};
+
+        Header[] sent = EsRestHighLevelClient.withoutCallerTag(headers);
+
+        assertEquals(1, sent.length);
+        assertSame(opaqueId, sent[0]);
+    }
+
+    @Test
+    public void headersWithoutCallerTagShouldBeSentAsTheyAre() {
+        Header[] headers = {new BasicHeader("X-Opaque-Id", "1")};
+
+        assertSame(headers, EsRestHighLevelClient.withoutCallerTag(headers));
+    }
+
+    @Test
+    public void endpointFamilyShouldBeDerivedFromRequest() {
+        assertEquals(EndpointFamily.BULK, EsRestHighLevelClient.endpointFamily("POST", "/_bulk"));
+        assertEquals(EndpointFamily.BULK, EsRestHighLevelClient.endpointFamily("POST", "/index/type/_bulk"));
+        assertEquals(EndpointFamily.SEARCH, EsRestHighLevelClient.endpointFamily("GET", "/index/_search"));
+        assertEquals(EndpointFamily.SEARCH, EsRestHighLevelClient.endpointFamily("POST", "/_search/scroll"));
+        assertEquals(EndpointFamily.SEARCH, EsRestHighLevelClient.endpointFamily("DELETE", "/_search/scroll"));
+        assertEquals(EndpointFamily.SEARCH, EsRestHighLevelClient.endpointFamily("POST", "/_msearch"));
+        assertEquals(EndpointFamily.ADMIN, EsRestHighLevelClient.endpointFamily("GET", "/"));
+        assertEquals(EndpointFamily.ADMIN, EsRestHighLevelClient.endpointFamily("HEAD", "/"));
+        assertEquals(EndpointFamily.ADMIN, EsRestHighLevelClient.endpointFamily("POST", "/_aliases"));
+        assertEquals(EndpointFamily.GET, EsRestHighLevelClient.endpointFamily("GET", "/index/type/1"));
+        assertEquals(EndpointFamily.GET, EsRestHighLevelClient.endpointFamily("HEAD", "/index/type/1"));
+        assertEquals(EndpointFamily.WRITE, EsRestHighLevelClient.endpointFamily("PUT", "/index/type/1"));
+        assertEquals(EndpointFamily.WRITE, EsRestHighLevelClient.endpointFamily("POST", "/index/type/1/_update"));
+        assertEquals(EndpointFamily.WRITE, EsRestHighLevelClient.endpointFamily("DELETE", "/index/type/1"));
+    }
+
+    private static RequestThrottler throttler() throws IOException {
+        return new RequestThrottler(Jackson.newObjectMapper().readValue(
+                "{\"maxConcurrentRequests\":1,\"maxWait\":\"10s\",\"priorities\":{\"batch\":0}}", RateLimitConfiguration.class));
+    }
+
+    private static Response response(String body) {
+        Response response = mock(Response.class);
+        when(response.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, 200, "OK"));
+        when(response.getEntity()).thenReturn(new NStringEntity(body, ContentType.APPLICATION_JSON));
+        when(response.getHost()).thenReturn(HttpHost.create("localhost:9200"));
+        return response;
+    }
+
+    private static List<Header> headers(Object[] arguments) {
+        List<Header> headers = new ArrayList<>();
+        for (Object argument : arguments) {
+            if (argument instanceof Header) {
+                headers.add((Header) argument);
+            } else if (argument instanceof Header[]) {
+                headers.addAll(Arrays.asList((Header[]) argument));
+            }
+        }
+        return headers;
+    }
+}
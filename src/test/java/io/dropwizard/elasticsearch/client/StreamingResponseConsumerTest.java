@@ -0,0 +1,141 @@
+package io.dropwizard.elasticsearch.client;
+
+import io.dropwizard.elasticsearch.util.ByteBufferPool;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link StreamingResponseConsumer}.
+ */
+public class StreamingResponseConsumerTest {
+
+    private static final String BODY = "{\"indices\":{\"index\":{\"primaries\":{\"docs\":{\"count\":42}}}}}";
+
+    @Test(expected = IllegalArgumentException.class)
+    public void factoryShouldRejectDirectBuffers() {
+        new StreamingResponseConsumerFactory(new ByteBufferPool(16, 1), 1024, new RecordingHandler());
+    }
+
+    @Test
+    public void successfulResponseShouldBeStreamedToHandler() throws IOException {
+        ByteBufferPool pool = new ByteBufferPool(8, 1, false);
+        RecordingHandler handler = new RecordingHandler();
+        StreamingResponseConsumer consumer = new StreamingResponseConsumer(pool, 1024, handler);
+
+        HttpResponse response = consume(consumer, 200, BODY);
+
+        assertEquals(BODY, new String(handler.body.toByteArray(), StandardCharsets.UTF_8));
+        assertTrue(handler.started);
+        assertTrue(handler.completed);
+        assertTrue(handler.maxChunk <= 8);
+        assertEquals(0L, response.getEntity().getContentLength());
+        assertEquals(1, pool.getPooledBuffers());
+    }
+
+    @Test
+    public void errorResponseShouldBeBuffered() throws IOException {
+        RecordingHandler handler = new RecordingHandler();
+        StreamingResponseConsumer consumer = new StreamingResponseConsumer(new ByteBufferPool(8, 1, false), 1024, handler);
+
+        HttpResponse response = consume(consumer, 404, BODY);
+
+        assertEquals(BODY, EntityUtils.toString(response.getEntity()));
+        assertEquals(0, handler.body.size());
+    }
+
+    @Test
+    public void errorResponseAboveLimitShouldFail() throws IOException {
+        StreamingResponseConsumer consumer = new StreamingResponseConsumer(new ByteBufferPool(8, 1, false), 16,
+                new RecordingHandler());
+
+        consume(consumer, 500, BODY);
+
+        assertTrue(consumer.getException() != null);
+    }
+
+    private static HttpResponse consume(StreamingResponseConsumer consumer, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, "");
+        BasicHttpEntity entity = new BasicHttpEntity();
+        entity.setContentLength(bytes.length);
+        entity.setContentType("application/json");
+        response.setEntity(entity);
+
+        try {
+            consumer.responseReceived(response);
+            consumer.consumeContent(new ChunkedDecoder(bytes, 5), null);
+            consumer.responseCompleted(new BasicHttpContext());
+        } catch (Exception e) {
+            consumer.failed(e);
+        }
+        return consumer.getResult();
+    }
+
+    private static class RecordingHandler implements ResponseBodyHandler {
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private boolean started = false;
+        private boolean completed = false;
+        private int maxChunk = 0;
+
+        @Override
+        public void onStart(HttpResponse response) {
+            started = true;
+            body.reset();
+        }
+
+        @Override
+        public void onContent(byte[] buffer, int offset, int length) {
+            body.write(buffer, offset, length);
+            maxChunk = Math.max(maxChunk, length);
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+
+    /**
+     * A {@link ContentDecoder} which returns at most a given number of bytes per read.
+     */
+    private static class ChunkedDecoder implements ContentDecoder {
+        private final ByteBuffer content;
+        private final int chunkSize;
+
+        ChunkedDecoder(byte[] content, int chunkSize) {
+            this.content = ByteBuffer.wrap(content);
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (!content.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(chunkSize, Math.min(dst.remaining(), content.remaining()));
+            for (int i = 0; i < count; i++) {
+                dst.put(content.get());
+            }
+            return count;
+        }
+
+        @Override
+        public boolean isCompleted() {
+            return !content.hasRemaining();
+        }
+    }
+}
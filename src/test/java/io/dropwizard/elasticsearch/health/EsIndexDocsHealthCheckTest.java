@@ -4,8 +4,10 @@ import com.google.common.collect.ImmutableList;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.junit.Test;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.mock;
 
 /**
@@ -46,4 +48,23 @@ public class EsIndexDocsHealthCheckTest {
     public void initializationWithValidParametersShouldSucceedl() {
         new EsIndexDocsHealthCheck(mock(RestHighLevelClient.class), "index", 10L);
     }
+
+    @Test
+    public void documentCountsShouldBeParsedFromStreamedStats() throws Exception {
+        byte[] stats = ("{\"_shards\":{\"total\":2},\"_all\":{\"primaries\":{\"docs\":{\"count\":7}}},"
+                + "\"indices\":{\"foo\":{\"primaries\":{\"docs\":{\"count\":5,\"deleted\":1}},"
+                + "\"total\":{\"docs\":{\"count\":10}}},"
+                + "\"bar\":{\"primaries\":{\"docs\":{\"count\":2}}}}}").getBytes(StandardCharsets.UTF_8);
+
+        EsIndexDocsHealthCheck.DocumentCountHandler handler = new EsIndexDocsHealthCheck.DocumentCountHandler();
+        handler.onStart(null);
+        for (int offset = 0; offset < stats.length; offset += 7) {
+            handler.onContent(stats, offset, Math.min(7, stats.length - offset));
+        }
+        handler.onComplete();
+
+        assertEquals(2, handler.getDocumentCounts().size());
+        assertEquals(Long.valueOf(5L), handler.getDocumentCounts().get("foo"));
+        assertEquals(Long.valueOf(2L), handler.getDocumentCounts().get("bar"));
+    }
 }
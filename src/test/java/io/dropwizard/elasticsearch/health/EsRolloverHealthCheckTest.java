@@ -0,0 +1,61 @@
+package io.dropwizard.elasticsearch.health;
+
+import com.codahale.metrics.health.HealthCheck;
+import io.dropwizard.elasticsearch.config.RolloverConfiguration;
+import io.dropwizard.elasticsearch.managed.ManagedRolloverIndex;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link EsRolloverHealthCheck}.
+ */
+public class EsRolloverHealthCheckTest {
+
+    @Test(expected = NullPointerException.class)
+    public void initializationWithNullRolloverIndexShouldFail() {
+        new EsRolloverHealthCheck(null);
+    }
+
+    @Test
+    public void rolloverIndexWhichHasNotBeenSetUpShouldBeUnhealthy() {
+        ManagedRolloverIndex rolloverIndex = mock(ManagedRolloverIndex.class);
+        when(rolloverIndex.getWriteAlias()).thenReturn("events");
+
+        HealthCheck.Result result = new EsRolloverHealthCheck(rolloverIndex).execute();
+
+        assertFalse(result.isHealthy());
+    }
+
+    @Test
+    public void pendingRolloverShouldBeUnhealthy() {
+        ManagedRolloverIndex rolloverIndex = recentlyChecked();
+        when(rolloverIndex.isRolloverPending()).thenReturn(true);
+
+        HealthCheck.Result result = new EsRolloverHealthCheck(rolloverIndex).execute();
+
+        assertFalse(result.isHealthy());
+    }
+
+    @Test
+    public void recentlyCheckedRolloverIndexShouldBeHealthy() {
+        ManagedRolloverIndex rolloverIndex = recentlyChecked();
+
+        HealthCheck.Result result = new EsRolloverHealthCheck(rolloverIndex).execute();
+
+        assertTrue(result.isHealthy());
+    }
+
+    private static ManagedRolloverIndex recentlyChecked() {
+        ManagedRolloverIndex rolloverIndex = mock(ManagedRolloverIndex.class);
+        when(rolloverIndex.getWriteAlias()).thenReturn("events");
+        when(rolloverIndex.getConfig()).thenReturn(new RolloverConfiguration());
+        when(rolloverIndex.getLastSuccessfulCheck()).thenReturn(System.currentTimeMillis());
+        when(rolloverIndex.getCurrentIndex()).thenReturn("events-000001");
+        when(rolloverIndex.getNextIndex()).thenReturn("events-000002");
+        return rolloverIndex;
+    }
+}
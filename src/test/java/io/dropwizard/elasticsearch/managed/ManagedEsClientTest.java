@@ -4,10 +4,20 @@ import io.dropwizard.configuration.ConfigurationException;
 import io.dropwizard.configuration.ConfigurationFactory;
 import io.dropwizard.configuration.ConfigurationValidationException;
 import io.dropwizard.configuration.DefaultConfigurationFactoryFactory;
+import io.dropwizard.elasticsearch.bulk.BulkLoadSession;
+import io.dropwizard.elasticsearch.client.EsRestHighLevelClient;
 import io.dropwizard.elasticsearch.config.EsConfiguration;
 import io.dropwizard.jackson.Jackson;
 import io.dropwizard.lifecycle.Managed;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.nio.entity.NStringEntity;
+import org.elasticsearch.client.HttpAsyncResponseConsumerFactory;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.CheckedConsumer;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Ignore;
@@ -17,12 +27,29 @@ import javax.validation.Validation;
 import javax.validation.Validator;
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Field;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.Collections;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
 
 /**
  * Unit tests for {@link ManagedEsClient}.
@@ -89,4 +116,124 @@ public class ManagedEsClientTest {
 
         assertNotNull(client);
     }
+
+    @Test
+    public void clientShouldUseConfiguredResponseConsumerFactory() throws URISyntaxException, IOException, ConfigurationException {
+        URL configFileUrl = this.getClass().getResource("/rest_client.yml");
+        File configFile = new File(configFileUrl.toURI());
+        EsConfiguration config = configFactory.build(configFile);
+
+        managedEsClient = new ManagedEsClient(config);
+
+        assertTrue(managedEsClient.getClient() instanceof EsRestHighLevelClient);
+        assertNotSame(HttpAsyncResponseConsumerFactory.DEFAULT,
+                ((EsRestHighLevelClient) managedEsClient.getClient()).getResponseConsumerFactory());
+    }
+
+    @Test
+    public void requestTracerShouldBeCreatedFromConfig() throws URISyntaxException, IOException, ConfigurationException {
+        URL configFileUrl = this.getClass().getResource("/rest_client_with_request_tracing.yml");
+        File configFile = new File(configFileUrl.toURI());
+        EsConfiguration config = configFactory.build(configFile);
+
+        managedEsClient = new ManagedEsClient(config);
+
+        assertNotNull(managedEsClient.getRequestTracer());
+        assertEquals(16, managedEsClient.getRequestTracer().getSamples().getCapacity());
+    }
+
+    @Test
+    public void throttlingClientShouldBeCreatedIfRateLimitsAreEnabled() throws URISyntaxException, IOException, ConfigurationException {
+        URL configFileUrl = this.getClass().getResource("/rest_client_with_rate_limits.yml");
+        File configFile = new File(configFileUrl.toURI());
+        EsConfiguration config = configFactory.build(configFile);
+
+        managedEsClient = new ManagedEsClient(config);
+
+        assertTrue(managedEsClient.getClient() instanceof EsRestHighLevelClient);
+        assertSame(managedEsClient.getRequestThrottler(),
+                ((EsRestHighLevelClient) managedEsClient.getClient()).getRequestThrottler());
+        assertEquals(10, managedEsClient.getRequestThrottler().getPriority("interactive"));
+    }
+
+    @Test
+    public void clientShouldNotBeThrottledIfRateLimitsAreDisabled() throws URISyntaxException, IOException, ConfigurationException {
+        URL configFileUrl = this.getClass().getResource("/rest_client.yml");
+        File configFile = new File(configFileUrl.toURI());
+        EsConfiguration config = configFactory.build(configFile);
+
+        managedEsClient = new ManagedEsClient(config);
+
+        assertNull(((EsRestHighLevelClient) managedEsClient.getClient()).getRequestThrottler());
+    }
+
+    @Test
+    public void connectionPoolShouldMatchMaxConcurrentRequests() throws Exception {
+        URL configFileUrl = this.getClass().getResource("/rest_client_with_rate_limits.yml");
+        File configFile = new File(configFileUrl.toURI());
+        EsConfiguration config = configFactory.build(configFile);
+        HttpAsyncClientBuilder httpClientBuilder = HttpAsyncClientBuilder.create();
+
+        ManagedEsClient.configureHttpClient(httpClientBuilder, null, config.getRateLimits());
+
+        // the setters of HttpAsyncClientBuilder are final and can't be verified
+        assertEquals(10, intField(httpClientBuilder, "maxConnTotal"));
+        assertEquals(10, intField(httpClientBuilder, "maxConnPerRoute"));
+    }
+
+    @Test
+    public void stopShouldAbortOpenBulkLoadSessions() throws Exception {
+        RestClient restClient = mock(RestClient.class);
+        CheckedConsumer<RestClient, IOException> doClose = RestClient::close;
+        RestHighLevelClient client = mock(RestHighLevelClient.class,
+                withSettings().useConstructor(restClient, doClose, Collections.emptyList()));
+        when(client.getLowLevelClient()).thenReturn(restClient);
+        Response settings = response("{\"my-index\":{\"settings\":{}}}");
+        when(restClient.performRequest(eq("GET"), startsWith("/my-index/_settings/"), anyMap())).thenReturn(settings);
+        Response stats = response("{\"_all\":{\"primaries\":{\"docs\":{\"count\":0}}}}");
+        when(restClient.performRequest(eq("GET"), eq("/my-index/_stats/docs"), anyMap())).thenReturn(stats);
+
+        ManagedEsClient managedClient = new ManagedEsClient(client);
+        BulkLoadSession session = managedClient.openBulkLoadSession("my-index");
+        managedClient.stop();
+
+        assertFalse(session.isOpen());
+        verify(restClient, times(2)).performRequest(eq("PUT"), eq("/my-index/_settings"), anyMap(), any(HttpEntity.class));
+        verify(restClient, never()).performRequest("POST", "/my-index/_refresh");
+        verify(restClient).close();
+    }
+
+    @Test
+    public void indexShouldOnlyBeCoveredByOneOpenBulkLoadSession() throws Exception {
+        RestClient restClient = mock(RestClient.class);
+        RestHighLevelClient client = mock(RestHighLevelClient.class);
+        when(client.getLowLevelClient()).thenReturn(restClient);
+        Response settings = response("{\"my-index\":{\"settings\":{}}}");
+        when(restClient.performRequest(eq("GET"), startsWith("/my-index"), anyMap())).thenReturn(settings);
+        Response stats = response("{\"_all\":{\"primaries\":{\"docs\":{\"count\":0}}}}");
+        when(restClient.performRequest(eq("GET"), eq("/my-index/_stats/docs"), anyMap())).thenReturn(stats);
+
+        ManagedEsClient managedClient = new ManagedEsClient(client);
+        BulkLoadSession session = managedClient.openBulkLoadSession("my-index");
+        try {
+            managedClient.openBulkLoadSession("other-index", "my-index");
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            assertEquals("Index my-index is already covered by an open bulk load session", e.getMessage());
+        }
+
+        session.abort();
+        assertTrue(managedClient.openBulkLoadSession("my-index").isOpen());
+    }
+
+    private static Response response(String json) {
+        HttpEntity entity = new NStringEntity(json, ContentType.APPLICATION_JSON);
+        return mock(Response.class, invocation -> "getEntity".equals(invocation.getMethod().getName()) ? entity : null);
+    }
+
+    private static int intField(Object object, String name) throws ReflectiveOperationException {
+        Field field = object.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        return field.getInt(object);
+    }
 }
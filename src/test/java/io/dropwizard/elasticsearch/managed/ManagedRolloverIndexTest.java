@@ -0,0 +1,342 @@
+package io.dropwizard.elasticsearch.managed;
+
+import io.dropwizard.elasticsearch.config.RolloverConfiguration;
+import io.dropwizard.jackson.Jackson;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpVersion;
+import org.apache.http.StatusLine;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicRequestLine;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.nio.entity.NStringEntity;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link ManagedRolloverIndex}.
+ */
+public class ManagedRolloverIndexTest {
+
+    private final long sinceOfMove = System.currentTimeMillis();
+
+    private RestClient restClient;
+    private RestHighLevelClient client;
+
+    @Before
+    public void setUp() {
+        restClient = mock(RestClient.class);
+        client = mock(RestHighLevelClient.class);
+        when(client.getLowLevelClient()).thenReturn(restClient);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void ensureClientIsNotNull() {
+        new ManagedRolloverIndex(null, new RolloverConfiguration());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void ensureRolloverConfigurationIsNotNull() {
+        new ManagedRolloverIndex(mock(RestHighLevelClient.class), null);
+    }
+
+    @Test
+    public void nextIndexNameShouldIncrementNumber() {
+        assertEquals("events-000002", ManagedRolloverIndex.nextIndexName("events-000001"));
+        assertEquals("events-000010", ManagedRolloverIndex.nextIndexName("events-000009"));
+        assertEquals("my-events-1000000", ManagedRolloverIndex.nextIndexName("my-events-999999"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void nextIndexNameShouldRejectIndexWithoutNumber() {
+        ManagedRolloverIndex.nextIndexName("events");
+    }
+
+    @Test
+    public void initializeShouldCreateFirstIndexIfWriteAliasIsMissing() throws IOException {
+        when(restClient.performRequest(eq("GET"), eq("/_alias/events"), anyMap())).thenReturn(response(404, "{}"));
+        when(restClient.performRequest("HEAD", "/events-000002")).thenReturn(response(404, null));
+
+        final long before = System.currentTimeMillis();
+        final ManagedRolloverIndex index = new ManagedRolloverIndex(client,
+                config("{\"writeAlias\":\"events\",\"readAlias\":\"events-all\",\"maxDocs\":100}"));
+        index.initialize();
+
+        assertEquals("events-000001", index.getCurrentIndex());
+        assertEquals("events-000002", index.getNextIndex());
+        assertTrue(index.getCurrentIndexSince() >= before);
+        assertTrue(index.getLastSuccessfulCheck() >= before);
+
+        final Map<String, Object> first = capturedBody("PUT", "/events-000001");
+        assertEquals(Arrays.asList("events", "events-all", "events-since-" + index.getCurrentIndexSince()),
+                sortedKeys(first.get("aliases")));
+        final Map<String, Object> next = capturedBody("PUT", "/events-000002");
+        assertEquals(Collections.singletonList("events-all"), sortedKeys(next.get("aliases")));
+        verify(restClient).performRequest(eq("PUT"), eq("/events-000001"), eq(Collections.emptyMap()),
+                any(HttpEntity.class));
+    }
+
+    @Test
+    public void initializeShouldUseIndicesCreatedByAnotherInstance() throws IOException {
+        when(restClient.performRequest(eq("GET"), eq("/_alias/events"), anyMap())).thenReturn(response(404, "{}"),
+                response(200, "{\"events-000001\":{\"aliases\":{\"events\":{}}}}"));
+        when(restClient.performRequest(eq("GET"), eq("/events-000001/_alias"), anyMap())).thenReturn(
+                response(200, "{\"events-000001\":{\"aliases\":{\"events\":{},\"events-since-1000\":{}}}}"));
+        when(restClient.performRequest("HEAD", "/events-000002")).thenReturn(response(404, null));
+        final ResponseException alreadyExists = new ResponseException(response(400,
+                "{\"error\":{\"type\":\"resource_already_exists_exception\"},\"status\":400}"));
+        when(restClient.performRequest(eq("PUT"), any(String.class), anyMap(), any(HttpEntity.class)))
+                .thenThrow(alreadyExists);
+
+        final ManagedRolloverIndex index = new ManagedRolloverIndex(client,
+                config("{\"writeAlias\":\"events\",\"maxDocs\":100}"));
+        index.initialize();
+
+        assertEquals("events-000001", index.getCurrentIndex());
+        assertEquals(1000L, index.getCurrentIndexSince());
+        assertEquals("events-000002", index.getNextIndex());
+    }
+
+    @Test
+    public void initializeShouldReadSinceWhenCurrentIndexIsWriteIndex() throws IOException {
+        final ManagedRolloverIndex index = initialized("{\"writeAlias\":\"events\",\"maxDocs\":100}",
+                "{\"events-000003\":{\"aliases\":{\"events\":{},\"events-since-1000\":{},\"events-since-2000\":{}}}}");
+
+        assertEquals("events-000003", index.getCurrentIndex());
+        assertEquals("events-000004", index.getNextIndex());
+        assertEquals(2000L, index.getCurrentIndexSince());
+        verify(restClient, never()).performRequest(eq("PUT"), any(String.class), anyMap(), any(HttpEntity.class));
+        verify(restClient, never()).performRequest(eq("POST"), any(String.class), anyMap(), any(HttpEntity.class));
+    }
+
+    @Test
+    public void initializeShouldAddMissingSinceAlias() throws IOException {
+        final long before = System.currentTimeMillis();
+        final ManagedRolloverIndex index = initialized("{\"writeAlias\":\"events\",\"maxDocs\":100}",
+                "{\"events-000003\":{\"aliases\":{\"events\":{}}}}");
+
+        assertTrue(index.getCurrentIndexSince() >= before);
+        final Map<String, Object> body = capturedBody("POST", "/_aliases");
+        assertEquals(Collections.singletonList(action("add", "events-000003", "events-since-" + index.getCurrentIndexSince())),
+                body.get("actions"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void initializeShouldRejectWriteAliasOnSeveralIndices() throws IOException {
+        when(restClient.performRequest(eq("GET"), eq("/_alias/events"), anyMap())).thenReturn(
+                response(200, "{\"events-000001\":{\"aliases\":{\"events\":{}}},\"events-000002\":{\"aliases\":{\"events\":{}}}}"));
+
+        new ManagedRolloverIndex(client, config("{\"writeAlias\":\"events\",\"maxDocs\":100}")).initialize();
+    }
+
+    @Test
+    public void checkAndRolloverShouldNotRollOverIfNoConditionIsMet() throws IOException {
+        final ManagedRolloverIndex index = initialized(
+                "{\"writeAlias\":\"events\",\"maxDocs\":100,\"maxSize\":\"1KB\",\"maxAge\":\"1d\"}", recentSince());
+        stats("events-000003", 99L, 1023L);
+
+        assertFalse(index.checkAndRollover());
+        assertEquals("events-000003", index.getCurrentIndex());
+        assertFalse(index.isRolloverPending());
+        verify(restClient, never()).performRequest(eq("POST"), eq("/_aliases"), anyMap(), any(HttpEntity.class));
+    }
+
+    @Test
+    public void checkAndRolloverShouldRollOverIfMaxDocsIsReached() throws IOException {
+        final ManagedRolloverIndex index = initialized("{\"writeAlias\":\"events\",\"maxDocs\":100}", recentSince());
+        stats("events-000003", 100L, 0L);
+
+        assertRolledOver(index);
+    }
+
+    @Test
+    public void checkAndRolloverShouldRollOverIfMaxSizeIsReached() throws IOException {
+        final ManagedRolloverIndex index = initialized("{\"writeAlias\":\"events\",\"maxSize\":\"1KB\"}", recentSince());
+        stats("events-000003", 0L, 1024L);
+
+        assertRolledOver(index);
+    }
+
+    @Test
+    public void checkAndRolloverShouldRollOverIfMaxAgeIsReached() throws IOException {
+        final ManagedRolloverIndex index = initialized("{\"writeAlias\":\"events\",\"maxAge\":\"1d\"}",
+                "{\"events-000003\":{\"aliases\":{\"events\":{},\"events-since-1000\":{}}}}");
+        stats("events-000003", 0L, 0L);
+
+        assertRolledOver(index);
+    }
+
+    @Test
+    public void checkShouldFollowWriteAliasMovedByAnotherInstance() throws IOException {
+        final ManagedRolloverIndex index = initialized("{\"writeAlias\":\"events\",\"maxAge\":\"1d\"}", recentSince());
+        movedByAnotherInstance();
+        stats("events-000004", 0L, 0L);
+        when(restClient.performRequest(eq("GET"), eq("/_alias/events"), anyMap())).thenReturn(
+                response(200, "{\"events-000004\":{\"aliases\":{\"events\":{}}}}"));
+
+        assertFalse(index.checkAndRollover());
+
+        assertEquals("events-000004", index.getCurrentIndex());
+        assertEquals("events-000005", index.getNextIndex());
+        assertEquals(sinceOfMove, index.getCurrentIndexSince());
+        verify(restClient, never()).performRequest(eq("POST"), eq("/_aliases"), anyMap(), any(HttpEntity.class));
+    }
+
+    @Test
+    public void rolloverByAnotherInstanceShouldCountAsRolledOver() throws IOException {
+        final ManagedRolloverIndex index = initialized("{\"writeAlias\":\"events\",\"maxDocs\":100}", recentSince());
+        stats("events-000003", 100L, 0L);
+        movedByAnotherInstance();
+        when(restClient.performRequest(eq("GET"), eq("/_alias/events"), anyMap())).thenReturn(
+                response(200, "{\"events-000003\":{\"aliases\":{\"events\":{}}}}"),
+                response(200, "{\"events-000004\":{\"aliases\":{\"events\":{}}}}"));
+        final ResponseException aliasNotFound = new ResponseException(response(404,
+                "{\"error\":{\"type\":\"aliases_not_found_exception\"},\"status\":404}"));
+        when(restClient.performRequest(eq("POST"), eq("/_aliases"), anyMap(), any(HttpEntity.class)))
+                .thenThrow(aliasNotFound);
+
+        assertTrue(index.checkAndRollover());
+
+        assertEquals("events-000004", index.getCurrentIndex());
+        assertEquals("events-000005", index.getNextIndex());
+        assertEquals(sinceOfMove, index.getCurrentIndexSince());
+        assertFalse(index.isRolloverPending());
+        assertNull(index.getLastError());
+    }
+
+    @Test
+    public void failedRolloverShouldRemainPending() throws IOException {
+        final ManagedRolloverIndex index = initialized("{\"writeAlias\":\"events\",\"maxDocs\":100}", recentSince());
+        stats("events-000003", 100L, 0L);
+        when(restClient.performRequest(eq("POST"), eq("/_aliases"), anyMap(), any(HttpEntity.class)))
+                .thenThrow(new IOException("timeout"));
+
+        try {
+            index.checkAndRollover();
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertEquals("timeout", e.getMessage());
+        }
+        assertTrue(index.isRolloverPending());
+        assertEquals("events-000003", index.getCurrentIndex());
+    }
+
+    private void assertRolledOver(ManagedRolloverIndex index) throws IOException {
+        when(restClient.performRequest("HEAD", "/events-000005")).thenReturn(response(404, null));
+
+        final long before = System.currentTimeMillis();
+        assertTrue(index.checkAndRollover());
+
+        assertEquals("events-000004", index.getCurrentIndex());
+        assertEquals("events-000005", index.getNextIndex());
+        assertTrue(index.getCurrentIndexSince() >= before);
+        assertFalse(index.isRolloverPending());
+
+        final Map<String, Object> body = capturedBody("POST", "/_aliases");
+        assertEquals(Arrays.asList(
+                action("remove", "events-000003", "events"),
+                action("add", "events-000004", "events"),
+                action("add", "events-000004", "events-since-" + index.getCurrentIndexSince())),
+                body.get("actions"));
+
+        final Map<String, Object> next = capturedBody("PUT", "/events-000005");
+        assertEquals(Collections.emptyList(), sortedKeys(next.get("aliases")));
+    }
+
+    private ManagedRolloverIndex initialized(String config, String currentIndexAliases) throws IOException {
+        when(restClient.performRequest(eq("GET"), eq("/_alias/events"), anyMap())).thenReturn(
+                response(200, "{\"events-000003\":{\"aliases\":{\"events\":{}}}}"));
+        when(restClient.performRequest(eq("GET"), eq("/events-000003/_alias"), anyMap())).thenReturn(
+                response(200, currentIndexAliases));
+        when(restClient.performRequest("HEAD", "/events-000004")).thenReturn(response(200, null));
+
+        final ManagedRolloverIndex index = new ManagedRolloverIndex(client, config(config));
+        index.initialize();
+        return index;
+    }
+
+    private void movedByAnotherInstance() throws IOException {
+        when(restClient.performRequest(eq("GET"), eq("/events-000004/_alias"), anyMap())).thenReturn(response(200,
+                "{\"events-000004\":{\"aliases\":{\"events\":{},\"events-since-" + sinceOfMove + "\":{}}}}"));
+        when(restClient.performRequest("HEAD", "/events-000005")).thenReturn(response(200, null));
+    }
+
+    private void stats(String index, long docs, long sizeInBytes) throws IOException {
+        when(restClient.performRequest(eq("GET"), eq("/" + index + "/_stats/docs,store"), anyMap())).thenReturn(
+                response(200, "{\"_all\":{\"primaries\":{\"docs\":{\"count\":" + docs + "},"
+                        + "\"store\":{\"size_in_bytes\":" + sizeInBytes + "}}}}"));
+    }
+
+    private Map<String, Object> capturedBody(String method, String endpoint) throws IOException {
+        final ArgumentCaptor<HttpEntity> entity = ArgumentCaptor.forClass(HttpEntity.class);
+        verify(restClient).performRequest(eq(method), eq(endpoint), anyMap(), entity.capture());
+        return XContentHelper.convertToMap(XContentType.JSON.xContent(), EntityUtils.toString(entity.getValue()), true);
+    }
+
+    private static String recentSince() {
+        return "{\"events-000003\":{\"aliases\":{\"events\":{},\"events-since-" + System.currentTimeMillis() + "\":{}}}}";
+    }
+
+    private static Map<String, Object> action(String type, String index, String alias) {
+        final Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("index", index);
+        parameters.put("alias", alias);
+        return Collections.singletonMap(type, parameters);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> sortedKeys(Object map) {
+        final List<String> keys = new ArrayList<>(((Map<String, Object>) map).keySet());
+        Collections.sort(keys);
+        return keys;
+    }
+
+    private static RolloverConfiguration config(String json) throws IOException {
+        return Jackson.newObjectMapper().readValue(json, RolloverConfiguration.class);
+    }
+
+    private static Response response(int status, String json) {
+        final StatusLine statusLine = new BasicStatusLine(HttpVersion.HTTP_1_1, status, "");
+        final HttpEntity entity = json == null ? null : new NStringEntity(json, ContentType.APPLICATION_JSON);
+        return mock(Response.class, invocation -> {
+            switch (invocation.getMethod().getName()) {
+                case "getRequestLine":
+                    return new BasicRequestLine("GET", "/", HttpVersion.HTTP_1_1);
+                case "getStatusLine":
+                    return statusLine;
+                case "getEntity":
+                    return entity;
+                default:
+                    return null;
+            }
+        });
+    }
+}
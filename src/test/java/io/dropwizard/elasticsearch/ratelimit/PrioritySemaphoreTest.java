@@ -0,0 +1,124 @@
+package io.dropwizard.elasticsearch.ratelimit;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link PrioritySemaphore}.
+ */
+public class PrioritySemaphoreTest {
+
+    private static final long TIMEOUT = TimeUnit.SECONDS.toNanos(10L);
+
+    @Test(expected = IllegalArgumentException.class)
+    public void initializationWithZeroPermitsShouldFail() {
+        new PrioritySemaphore(0);
+    }
+
+    @Test
+    public void permitsShouldBeAvailableRightAway() throws InterruptedException {
+        PrioritySemaphore semaphore = new PrioritySemaphore(2);
+
+        assertTrue(semaphore.tryAcquire(0, 0L));
+        assertTrue(semaphore.tryAcquire(0, 0L));
+        assertFalse(semaphore.tryAcquire(0, 0L));
+        assertEquals(0, semaphore.queueLength());
+    }
+
+    @Test
+    public void releasedPermitShouldBeAvailableAgain() throws InterruptedException {
+        PrioritySemaphore semaphore = new PrioritySemaphore(1);
+        semaphore.tryAcquire(0, 0L);
+
+        semaphore.release();
+
+        assertEquals(1, semaphore.availablePermits());
+        assertTrue(semaphore.tryAcquire(0, 0L));
+    }
+
+    @Test
+    public void releasedPermitShouldBeHandedToHighestPriorityWaiter() throws Exception {
+        PrioritySemaphore semaphore = new PrioritySemaphore(1);
+        semaphore.tryAcquire(0, 0L);
+        List<Integer> order = new CopyOnWriteArrayList<>();
+
+        Thread low = waiter(semaphore, 0, order);
+        awaitQueueLength(semaphore, 1);
+        Thread high = waiter(semaphore, 10, order);
+        awaitQueueLength(semaphore, 2);
+
+        semaphore.release();
+        high.join(TimeUnit.NANOSECONDS.toMillis(TIMEOUT));
+        semaphore.release();
+        low.join(TimeUnit.NANOSECONDS.toMillis(TIMEOUT));
+
+        assertEquals(2, order.size());
+        assertEquals(10, (int) order.get(0));
+        assertEquals(0, (int) order.get(1));
+    }
+
+    @Test
+    public void asyncWaitersShouldBeGrantedByReleasingThreadInPriorityOrder() throws InterruptedException {
+        PrioritySemaphore semaphore = new PrioritySemaphore(1);
+        List<Integer> order = new CopyOnWriteArrayList<>();
+
+        assertNull(semaphore.acquireAsync(0, () -> order.add(-1)));
+        assertNotNull(semaphore.acquireAsync(0, () -> order.add(0)));
+        assertNotNull(semaphore.acquireAsync(10, () -> order.add(10)));
+        assertTrue(order.isEmpty());
+
+        semaphore.release();
+        assertEquals(Collections.singletonList(10), order);
+        semaphore.release();
+        assertEquals(Arrays.asList(10, 0), order);
+        assertEquals(0, semaphore.availablePermits());
+        assertFalse(semaphore.tryAcquire(0, 0L));
+    }
+
+    @Test
+    public void cancelledAsyncWaiterShouldNotBeGranted() {
+        PrioritySemaphore semaphore = new PrioritySemaphore(1);
+        semaphore.acquireAsync(0, () -> { });
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        PrioritySemaphore.Waiter waiter = semaphore.acquireAsync(0, () -> order.add(0));
+
+        assertTrue(semaphore.cancel(waiter));
+        semaphore.release();
+
+        assertTrue(order.isEmpty());
+        assertEquals(1, semaphore.availablePermits());
+        assertFalse(semaphore.cancel(waiter));
+    }
+
+    private static Thread waiter(PrioritySemaphore semaphore, int priority, List<Integer> order) {
+        Thread thread = new Thread(() -> {
+            try {
+                if (semaphore.tryAcquire(priority, TIMEOUT)) {
+                    order.add(priority);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static void awaitQueueLength(PrioritySemaphore semaphore, int length) throws InterruptedException {
+        long deadline = System.nanoTime() + TIMEOUT;
+        while (semaphore.queueLength() < length && System.nanoTime() < deadline) {
+            Thread.sleep(1L);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package io.dropwizard.elasticsearch.ratelimit;
+
+import io.dropwizard.elasticsearch.config.RateLimitConfiguration;
+import io.dropwizard.jackson.Jackson;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link RequestThrottler}.
+ */
+public class RequestThrottlerTest {
+
+    @Test(expected = NullPointerException.class)
+    public void ensureRateLimitConfigurationIsNotNull() {
+        new RequestThrottler(null);
+    }
+
+    @Test
+    public void unknownTagsShouldUseTheDefaultTag() throws IOException {
+        RequestThrottler throttler = new RequestThrottler(config(
+                "{\"defaultTag\":\"interactive\",\"priorities\":{\"interactive\":10,\"batch\":0}}"));
+
+        assertEquals(10, throttler.getPriority("interactive"));
+        assertEquals(0, throttler.getPriority("batch"));
+        assertEquals(10, throttler.getPriority("unknown"));
+        assertEquals(10, throttler.getPriority(null));
+    }
+
+    @Test
+    public void throttledTimeShouldBeRecordedPerTag() throws IOException {
+        RequestThrottler throttler = new RequestThrottler(config("{\"priorities\":{\"batch\":0}}"));
+
+        throttler.acquire("batch", EndpointFamily.BULK).close();
+        throttler.acquire(null, EndpointFamily.SEARCH).close();
+
+        assertEquals(1L, throttler.getMetrics().timer("tags.batch.throttled").getCount());
+        assertEquals(1L, throttler.getMetrics().timer("tags.default.throttled").getCount());
+    }
+
+    @Test(expected = RequestThrottledException.class)
+    public void exhaustedConnectionSlotsShouldRejectAfterMaxWait() throws IOException {
+        RequestThrottler throttler = new RequestThrottler(config("{\"maxConcurrentRequests\":1,\"maxWait\":\"10ms\"}"));
+        throttler.acquire(null, EndpointFamily.SEARCH);
+
+        throttler.acquire(null, EndpointFamily.SEARCH);
+    }
+
+    @Test
+    public void closedPermitShouldReleaseConnectionSlot() throws IOException {
+        RequestThrottler throttler = new RequestThrottler(config("{\"maxConcurrentRequests\":1,\"maxWait\":\"10ms\"}"));
+
+        ThrottlePermit permit = throttler.acquire(null, EndpointFamily.SEARCH);
+        permit.close();
+        permit.close();
+
+        assertNotNull(throttler.acquire(null, EndpointFamily.SEARCH));
+        assertEquals(0, throttler.getMetrics().getGauges().get("connections.available").getValue());
+    }
+
+    @Test
+    public void concurrencyQuotaShouldOnlyApplyToItsEndpointFamily() throws IOException {
+        RequestThrottler throttler = new RequestThrottler(config("{\"maxWait\":\"10ms\",\"quotas\":["
+                + "{\"tag\":\"batch\",\"endpointFamily\":\"BULK\",\"maxConcurrentRequests\":1}]}"));
+        throttler.acquire("batch", EndpointFamily.BULK);
+
+        assertNotNull(throttler.acquire("batch", EndpointFamily.SEARCH));
+        try {
+            throttler.acquire("batch", EndpointFamily.BULK);
+        } catch (RequestThrottledException e) {
+            assertEquals("batch", e.getTag());
+            assertEquals(EndpointFamily.BULK, e.getEndpointFamily());
+            assertEquals(1L, throttler.getMetrics().meter("tags.batch.rejected").getCount());
+            return;
+        }
+        throw new AssertionError("Expected RequestThrottledException");
+    }
+
+    @Test(expected = RequestThrottledException.class)
+    public void exhaustedRateLimitShouldRejectIfWaitExceedsMaxWait() throws IOException {
+        RequestThrottler throttler = new RequestThrottler(config("{\"maxWait\":\"10ms\",\"quotas\":["
+                + "{\"tag\":\"export\",\"requestsPerSecond\":0.1,\"burst\":1}]}"));
+        throttler.acquire("export", EndpointFamily.SEARCH).close();
+
+        throttler.acquire("export", EndpointFamily.SEARCH);
+    }
+
+    @Test
+    public void asyncAcquisitionShouldCompleteRightAwayIfNotThrottled() throws Exception {
+        RequestThrottler throttler = new RequestThrottler(config("{\"maxConcurrentRequests\":1}"));
+
+        CompletableFuture<ThrottlePermit> permit = throttler.acquireAsync(null, EndpointFamily.SEARCH);
+
+        assertTrue(permit.isDone());
+        permit.get().close();
+        assertEquals(1, throttler.getMetrics().getGauges().get("connections.available").getValue());
+    }
+
+    @Test
+    public void asyncAcquisitionShouldBeQueuedUntilPermitIsReleased() throws Exception {
+        RequestThrottler throttler = new RequestThrottler(config("{\"maxConcurrentRequests\":1,\"maxWait\":\"10s\","
+                + "\"priorities\":{\"interactive\":10,\"batch\":0}}"));
+        ThrottlePermit held = throttler.acquire(null, EndpointFamily.SEARCH);
+        List<String> order = new CopyOnWriteArrayList<>();
+
+        CompletableFuture<ThrottlePermit> batch = throttler.acquireAsync("batch", EndpointFamily.BULK);
+        batch.thenRun(() -> order.add("batch"));
+        CompletableFuture<ThrottlePermit> interactive = throttler.acquireAsync("interactive", EndpointFamily.SEARCH);
+        interactive.thenRun(() -> order.add("interactive"));
+        assertFalse(batch.isDone());
+        assertFalse(interactive.isDone());
+
+        held.close();
+        assertTrue(interactive.isDone());
+        assertFalse(batch.isDone());
+        interactive.get().close();
+        assertTrue(batch.isDone());
+        batch.get().close();
+
+        assertEquals(Arrays.asList("interactive", "batch"), order);
+        assertEquals(1, throttler.getMetrics().getGauges().get("connections.available").getValue());
+    }
+
+    @Test
+    public void queuedAsyncAcquisitionShouldBeRejectedAfterMaxWait() throws Exception {
+        RequestThrottler throttler = new RequestThrottler(config("{\"maxConcurrentRequests\":1,\"maxWait\":\"10ms\"}"));
+        ThrottlePermit held = throttler.acquire(null, EndpointFamily.SEARCH);
+
+        CompletableFuture<ThrottlePermit> permit = throttler.acquireAsync(null, EndpointFamily.SEARCH);
+
+        assertRejected(permit);
+        held.close();
+        assertEquals(1, throttler.getMetrics().getGauges().get("connections.available").getValue());
+        assertEquals(1L, throttler.getMetrics().meter("tags.default.rejected").getCount());
+    }
+
+    @Test
+    public void asyncAcquisitionShouldWaitForRateLimit() throws Exception {
+        RequestThrottler throttler = new RequestThrottler(config("{\"maxWait\":\"10s\",\"quotas\":["
+                + "{\"tag\":\"export\",\"requestsPerSecond\":20,\"burst\":1}]}"));
+        throttler.acquire("export", EndpointFamily.SEARCH).close();
+
+        CompletableFuture<ThrottlePermit> permit = throttler.acquireAsync("export", EndpointFamily.SEARCH);
+
+        assertFalse(permit.isDone());
+        permit.get(10L, TimeUnit.SECONDS).close();
+        throttler.close();
+    }
+
+    @Test
+    public void closeShouldRejectQueuedAsyncAcquisitions() throws Exception {
+        RequestThrottler throttler = new RequestThrottler(config("{\"maxConcurrentRequests\":1,\"maxWait\":\"10s\"}"));
+        throttler.acquire(null, EndpointFamily.SEARCH);
+        CompletableFuture<ThrottlePermit> permit = throttler.acquireAsync(null, EndpointFamily.SEARCH);
+
+        throttler.close();
+
+        assertRejected(permit);
+    }
+
+    private static void assertRejected(CompletableFuture<ThrottlePermit> permit) throws InterruptedException,
+            TimeoutException {
+        try {
+            permit.get(10L, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RequestThrottledException);
+            return;
+        }
+        throw new AssertionError("Expected RequestThrottledException");
+    }
+
+    private static RateLimitConfiguration config(String json) throws IOException {
+        return Jackson.newObjectMapper().readValue(json, RateLimitConfiguration.class);
+    }
+}
@@ -0,0 +1,85 @@
+package io.dropwizard.elasticsearch.ratelimit;
+
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for {@link TokenBucket}.
+ */
+public class TokenBucketTest {
+
+    private final FakeTicker ticker = new FakeTicker();
+
+    @Test(expected = IllegalArgumentException.class)
+    public void initializationWithZeroRateShouldFail() {
+        new TokenBucket(0.0d, 1, ticker);
+    }
+
+    @Test
+    public void burstShouldBeAvailableRightAway() {
+        TokenBucket bucket = new TokenBucket(10.0d, 3, ticker);
+
+        assertEquals(0L, bucket.reserve());
+        assertEquals(0L, bucket.reserve());
+        assertEquals(0L, bucket.reserve());
+    }
+
+    @Test
+    public void reservationsBeyondBurstShouldWaitInOrder() {
+        TokenBucket bucket = new TokenBucket(10.0d, 1, ticker);
+
+        assertEquals(0L, bucket.reserve());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100L), bucket.reserve());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(200L), bucket.reserve());
+    }
+
+    @Test
+    public void tokensShouldBeRefilledOverTime() {
+        TokenBucket bucket = new TokenBucket(10.0d, 1, ticker);
+        bucket.reserve();
+
+        ticker.advance(TimeUnit.MILLISECONDS.toNanos(100L));
+
+        assertEquals(0L, bucket.reserve());
+    }
+
+    @Test
+    public void refillShouldNotExceedCapacity() {
+        TokenBucket bucket = new TokenBucket(10.0d, 2, ticker);
+
+        ticker.advance(TimeUnit.SECONDS.toNanos(10L));
+
+        assertEquals(0L, bucket.reserve());
+        assertEquals(0L, bucket.reserve());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100L), bucket.reserve());
+    }
+
+    @Test
+    public void cancelledReservationsShouldBeReturned() {
+        TokenBucket bucket = new TokenBucket(10.0d, 1, ticker);
+        bucket.reserve();
+        bucket.reserve();
+
+        bucket.cancel();
+
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100L), bucket.reserve());
+    }
+
+    private static class FakeTicker extends Ticker {
+
+        private long nanos = 0L;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long nanos) {
+            this.nanos += nanos;
+        }
+    }
+}
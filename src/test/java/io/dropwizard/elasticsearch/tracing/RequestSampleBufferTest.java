@@ -0,0 +1,59 @@
+package io.dropwizard.elasticsearch.tracing;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link RequestSampleBuffer}.
+ */
+public class RequestSampleBufferTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void initializationWithZeroCapacityShouldFail() {
+        new RequestSampleBuffer(0);
+    }
+
+    @Test
+    public void snapshotShouldReturnEntriesOldestFirst() {
+        RequestSampleBuffer buffer = new RequestSampleBuffer(3);
+        buffer.add(request("/a"));
+        buffer.add(request("/b"));
+
+        List<TracedRequest> snapshot = buffer.snapshot();
+
+        assertEquals(2, snapshot.size());
+        assertEquals("/a", snapshot.get(0).getEndpoint());
+        assertEquals("/b", snapshot.get(1).getEndpoint());
+    }
+
+    @Test
+    public void oldestEntriesShouldBeOverwrittenWhenFull() {
+        RequestSampleBuffer buffer = new RequestSampleBuffer(2);
+        buffer.add(request("/a"));
+        buffer.add(request("/b"));
+        buffer.add(request("/c"));
+
+        List<TracedRequest> snapshot = buffer.snapshot();
+
+        assertEquals(2, snapshot.size());
+        assertEquals("/b", snapshot.get(0).getEndpoint());
+        assertEquals("/c", snapshot.get(1).getEndpoint());
+    }
+
+    @Test
+    public void clearShouldRemoveAllEntries() {
+        RequestSampleBuffer buffer = new RequestSampleBuffer(2);
+        buffer.add(request("/a"));
+        buffer.clear();
+
+        assertTrue(buffer.snapshot().isEmpty());
+    }
+
+    private static TracedRequest request(String endpoint) {
+        return new TracedRequest(0L, "GET", endpoint, "http://localhost:9200", 200, 0L, -1L, null, "");
+    }
+}
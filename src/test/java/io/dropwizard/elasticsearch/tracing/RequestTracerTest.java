@@ -0,0 +1,175 @@
+package io.dropwizard.elasticsearch.tracing;
+
+import io.dropwizard.util.Duration;
+import org.apache.http.Header;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.nio.entity.NStringEntity;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.junit.Test;
+
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit tests for {@link RequestTracer}.
+ */
+public class RequestTracerTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void initializationWithInvalidSampleRateShouldFail() {
+        new RequestTracer(Duration.seconds(1), 1.5d, 10, 100, false, "test-");
+    }
+
+    @Test
+    public void sampledRequestsShouldBeRecorded() {
+        RequestTracer tracer = new RequestTracer(Duration.minutes(1), 1.0d, 10, 4, false, "test-");
+        BasicHttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest("POST", "/index/_search");
+        request.setEntity(new NStringEntity("{\"query\":{}}", ContentType.APPLICATION_JSON));
+        HttpContext context = context(request);
+
+        tracer.process(request, context);
+        tracer.process(response(), context);
+
+        List<TracedRequest> samples = tracer.getSamples().snapshot();
+        assertEquals(1, samples.size());
+
+        TracedRequest traced = samples.get(0);
+        assertEquals("POST", traced.getMethod());
+        assertEquals("/index/_search", traced.getEndpoint());
+        assertEquals("http://localhost:9200", traced.getNode());
+        assertEquals(200, traced.getStatus());
+        assertEquals(42L, traced.getResponseSize());
+        assertEquals("{\"qu...", traced.getBody());
+        assertEquals("test-1", traced.getOpaqueId());
+    }
+
+    @Test
+    public void unsampledRequestsShouldNotBeRecordedOrTagged() {
+        RequestTracer tracer = new RequestTracer(Duration.milliseconds(0), 0.0d, 10, 100, false, "test-");
+        BasicHttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest("GET", "/_stats");
+        HttpContext context = spy(context(request));
+
+        tracer.process(request, context);
+        tracer.process(response(), context);
+
+        assertTrue(tracer.getSamples().snapshot().isEmpty());
+        assertFalse(request.containsHeader(RequestTracer.OPAQUE_ID_HEADER));
+        verify(context, never()).setAttribute(anyString(), any());
+    }
+
+    @Test
+    public void requestsShouldBeSlowFromTheThreshold() {
+        RequestTracer tracer = new RequestTracer(Duration.milliseconds(10), 0.0d, 10, 100, false, "test-");
+
+        assertFalse(tracer.isSlow(TimeUnit.MILLISECONDS.toNanos(10L) - 1L));
+        assertTrue(tracer.isSlow(TimeUnit.MILLISECONDS.toNanos(10L)));
+    }
+
+    @Test
+    public void tookShouldOnlyBeShownIfKnown() {
+        TracedRequest withTook = new TracedRequest(0L, "POST", "/_bulk", "http://localhost:9200", 200,
+                TimeUnit.MILLISECONDS.toNanos(20L), 5L, 42L, null, "", null);
+        TracedRequest withoutTook = new TracedRequest(0L, "GET", "/", "http://localhost:9200", 200,
+                TimeUnit.MILLISECONDS.toNanos(20L), 42L, null, "");
+
+        assertEquals(5L, withTook.getTookMillis());
+        assertTrue(withTook.toString().contains("status=200 took=5ms wall=20ms"));
+        assertEquals(-1L, withoutTook.getTookMillis());
+        assertTrue(withoutTook.toString().contains("status=200 wall=20ms"));
+    }
+
+    @Test
+    public void existingOpaqueIdShouldBeKept() {
+        RequestTracer tracer = new RequestTracer(Duration.minutes(1), 0.0d, 10, 100, true, "test-");
+        BasicHttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest("GET", "/_stats");
+        request.addHeader(RequestTracer.OPAQUE_ID_HEADER, "my-id");
+
+        tracer.process(request, context(request));
+
+        assertEquals(1, request.getHeaders(RequestTracer.OPAQUE_ID_HEADER).length);
+        assertEquals("my-id", request.getFirstHeader(RequestTracer.OPAQUE_ID_HEADER).getValue());
+    }
+
+    @Test
+    public void opaqueIdsShouldBeGeneratedIfEnabled() {
+        RequestTracer tracer = new RequestTracer(Duration.minutes(1), 0.0d, 10, 100, true, "test-");
+        BasicHttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest("GET", "/_stats");
+
+        tracer.process(request, context(request));
+
+        assertEquals("test-1", request.getFirstHeader(RequestTracer.OPAQUE_ID_HEADER).getValue());
+    }
+
+    @Test
+    public void opaqueIdShouldBeAddedToHeadersIfEnabled() {
+        RequestTracer tracer = new RequestTracer(Duration.minutes(1), 0.0d, 10, 100, true, "test-");
+
+        Header[] headers = tracer.ensureOpaqueId(new Header[0]);
+
+        assertEquals(1, headers.length);
+        assertEquals(RequestTracer.OPAQUE_ID_HEADER, headers[0].getName());
+        assertEquals("test-1", headers[0].getValue());
+    }
+
+    @Test
+    public void opaqueIdOfCallerShouldBeKeptInHeaders() {
+        RequestTracer tracer = new RequestTracer(Duration.minutes(1), 0.0d, 10, 100, true, "test-");
+        Header[] headers = {new BasicHeader(RequestTracer.OPAQUE_ID_HEADER, "my-trace-id")};
+
+        assertSame(headers, tracer.ensureOpaqueId(headers));
+    }
+
+    @Test
+    public void failedRequestsShouldBeRecorded() {
+        RequestTracer tracer = new RequestTracer(Duration.minutes(1), 1.0d, 10, 100, false, "test-");
+        Header[] headers = {new BasicHeader(RequestTracer.OPAQUE_ID_HEADER, "my-trace-id")};
+
+        tracer.failed("POST", "/index/_search", new NStringEntity("{}", ContentType.APPLICATION_JSON), headers,
+                42L, new SocketTimeoutException("Read timed out"));
+
+        List<TracedRequest> samples = tracer.getSamples().snapshot();
+        assertEquals(1, samples.size());
+
+        TracedRequest traced = samples.get(0);
+        assertTrue(traced.isFailed());
+        assertEquals("POST", traced.getMethod());
+        assertEquals("/index/_search", traced.getEndpoint());
+        assertEquals(0, traced.getStatus());
+        assertEquals(42L, traced.getWallTimeNanos());
+        assertEquals("my-trace-id", traced.getOpaqueId());
+        assertEquals("{}", traced.getBody());
+        assertEquals("java.net.SocketTimeoutException: Read timed out", traced.getFailure());
+    }
+
+    private static HttpContext context(BasicHttpEntityEnclosingRequest request) {
+        HttpContext context = new BasicHttpContext();
+        context.setAttribute(HttpCoreContext.HTTP_REQUEST, request);
+        context.setAttribute(HttpCoreContext.HTTP_TARGET_HOST, HttpHost.create("localhost:9200"));
+        return context;
+    }
+
+    private static HttpResponse response() {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.addHeader("Content-Length", "42");
+        return response;
+    }
+}
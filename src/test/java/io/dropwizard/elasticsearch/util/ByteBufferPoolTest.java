@@ -0,0 +1,69 @@
+package io.dropwizard.elasticsearch.util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link ByteBufferPool}.
+ */
+public class ByteBufferPoolTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void initializationWithZeroBufferSizeShouldFail() {
+        new ByteBufferPool(0, 1);
+    }
+
+    @Test
+    public void acquiredBuffersShouldBeDirect() {
+        ByteBuffer buffer = new ByteBufferPool(16, 1).acquire();
+
+        assertTrue(buffer.isDirect());
+        assertEquals(16, buffer.capacity());
+    }
+
+    @Test
+    public void releasedBuffersShouldBeReused() {
+        ByteBufferPool pool = new ByteBufferPool(16, 1);
+        ByteBuffer buffer = pool.acquire();
+        buffer.put((byte) 1);
+        pool.release(buffer);
+
+        ByteBuffer reused = pool.acquire();
+
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+    }
+
+    @Test
+    public void poolShouldBeBounded() {
+        ByteBufferPool pool = new ByteBufferPool(16, 1);
+        pool.release(pool.acquire());
+        pool.release(ByteBuffer.allocateDirect(16));
+
+        assertEquals(1, pool.getPooledBuffers());
+    }
+
+    @Test
+    public void foreignBuffersShouldBeIgnored() {
+        ByteBufferPool pool = new ByteBufferPool(16, 2);
+        pool.release(ByteBuffer.allocate(16));
+        pool.release(ByteBuffer.allocateDirect(32));
+
+        assertEquals(0, pool.getPooledBuffers());
+    }
+
+    @Test
+    public void heapPoolShouldHandOutHeapBuffers() {
+        ByteBufferPool pool = new ByteBufferPool(16, 1, false);
+        ByteBuffer buffer = pool.acquire();
+        pool.release(ByteBuffer.allocateDirect(16));
+
+        assertTrue(buffer.hasArray());
+        assertEquals(0, pool.getPooledBuffers());
+    }
+}